@@ -1,10 +1,22 @@
 package com.zmh.fastlog;
 
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.Context;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.utils.BufferPool;
+import com.zmh.fastlog.worker.Worker;
 import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.log.ByteRingLogWorker;
+import com.zmh.fastlog.worker.log.CallSiteRateLimiter;
+import com.zmh.fastlog.worker.log.CallerLocator;
+import com.zmh.fastlog.worker.log.HeadSampler;
 import com.zmh.fastlog.worker.log.LogWorker;
+import com.zmh.fastlog.worker.log.LoggerRules;
+import com.zmh.fastlog.worker.log.StripedLogWorker;
+import com.zmh.fastlog.worker.log.TailSampler;
 import com.zmh.fastlog.worker.mq.MqWorker;
 import com.zmh.fastlog.worker.mq.producer.KafkaProducer;
 import com.zmh.fastlog.worker.mq.producer.MqProducer;
@@ -14,6 +26,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Closeable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.zmh.fastlog.utils.Utils.safeClose;
@@ -47,10 +60,30 @@ public class FastLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     @Override
     protected void append(ILoggingEvent eventObject) {
         if (nonNull(config) && config.isEnable() && nonNull(fastLog)) {
-            fastLog.doAppend(eventObject);
+            fastLog.doAppend(eventObject, frameworkPackages());
         }
     }
 
+    /**
+     * 把当前使用的过滤规则交给同一个LoggerContext中的FastLogTurboFilter, 为null时不再过滤
+     */
+    private void bindTurboFilters(LoggerRules loggerRules) {
+        Context context = getContext();
+        if (!(context instanceof LoggerContext)) {
+            return;
+        }
+        for (TurboFilter filter : ((LoggerContext) context).getTurboFilterList()) {
+            if (filter instanceof FastLogTurboFilter) {
+                ((FastLogTurboFilter) filter).setLoggerRules(loggerRules);
+            }
+        }
+    }
+
+    private List<String> frameworkPackages() {
+        Context context = getContext();
+        return context instanceof LoggerContext ? ((LoggerContext) context).getFrameworkPackages() : null;
+    }
+
     @Override
     public void start() {
         super.start();
@@ -65,6 +98,9 @@ public class FastLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
                     ex.printStackTrace();
                 }
             }
+            if (nonNull(fastLog)) {
+                bindTurboFilters(fastLog.getLoggerRules());
+            }
         }
     }
 
@@ -73,6 +109,7 @@ public class FastLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         super.stop();
         synchronized (FastLogAppender.class) {
             instanceCount--;
+            bindTurboFilters(null);
             if (nonNull(fastLog) && 0 == instanceCount) {
                 System.out.println("fastlog appender stop!");
                 fastLog.close();
@@ -84,11 +121,25 @@ public class FastLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
 class FastLog implements Closeable {
 
-    private final LogWorker logWorker;
+    private final Worker<Object> logWorker;
     private final MqWorker mqWorker;
     private final FileWorker fileWorker;
+    private final boolean includeCallerData;
+    // 按链路id采样, 没有配置时为空
+    private final HeadSampler headSampler;
+    // 按调用点限流, 没有配置时为空
+    private final CallSiteRateLimiter rateLimiter;
+    // 尾部采样, 没有配置时为空
+    private final TailSampler tailSampler;
+    // 按logger名称过滤日志, 交给FastLogTurboFilter和tailSampler使用, 各个LogWorker按相同的配置自己编译
+    @Getter
+    private final LoggerRules loggerRules;
 
     public FastLog(FastLogConfig config) {
+        includeCallerData = config.isIncludeCallerData();
+        headSampler = HeadSampler.create(config);
+        loggerRules = new LoggerRules(config);
+        BufferPool.getDefault().setMaxRetainedBytes((long) config.getBufferPoolSize() << 20);
         try {
             MqProducer producer;
             if ("pulsar".equals(config.getMqType())) {
@@ -96,21 +147,43 @@ class FastLog implements Closeable {
             } else {
                 producer = new KafkaProducer(config.getUrl(), config.getTopic(), config.getBatchSize());
             }
-            mqWorker = new MqWorker(producer, config.getBatchMessageSize());
+            mqWorker = new MqWorker(producer, config);
             fileWorker = new FileWorker(mqWorker, config);
-            logWorker = new LogWorker(mqWorker, fileWorker, config.getBatchMessageSize(), config.getMaxMsgSize());
+            if (config.getByteRingSize() > 0) {
+                logWorker = new ByteRingLogWorker(mqWorker, fileWorker, config);
+            } else if (config.getLogShardCount() > 1) {
+                logWorker = new StripedLogWorker(mqWorker, fileWorker, config);
+            } else {
+                logWorker = new LogWorker(mqWorker, fileWorker, config);
+            }
+            rateLimiter = CallSiteRateLimiter.create(config, logWorker::tryEnqueue);
+            tailSampler = TailSampler.create(config, loggerRules, logWorker::enqueue);
         } catch (Exception ex) {
             this.close();
             throw ex;
         }
     }
 
-    public void doAppend(Object message) {
+    public void doAppend(Object message, List<String> frameworkPackages) {
+        if (nonNull(headSampler) && message instanceof ILoggingEvent && !headSampler.isSampled((ILoggingEvent) message)) {
+            return;
+        }
+        if (nonNull(rateLimiter) && message instanceof ILoggingEvent && !rateLimiter.tryAcquire((ILoggingEvent) message)) {
+            return;
+        }
+        if (includeCallerData && message instanceof ILoggingEvent) {
+            CallerLocator.locate((ILoggingEvent) message, frameworkPackages);
+        }
+        if (nonNull(tailSampler) && message instanceof ILoggingEvent && tailSampler.offer((ILoggingEvent) message)) {
+            return;
+        }
         logWorker.enqueue(message);
     }
 
     @Override
     public void close() {
+        safeClose(rateLimiter);
+        safeClose(tailSampler);
         safeClose(mqWorker);
         safeClose(logWorker);
         safeClose(fileWorker);
@@ -0,0 +1,46 @@
+package com.zmh.fastlog;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import com.zmh.fastlog.worker.log.LoggerRules;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Marker;
+
+import static java.util.Objects.isNull;
+
+/**
+ * 在logback创建LoggingEvent之前按fastlog的过滤规则拒绝日志, 省去被排除日志的MDC复制、调用栈等开销,
+ * 规则由同一个LoggerContext中的FastLogAppender启动时设置, 与appender共用同一个LoggerRules, fastlog没有启动时不过滤,
+ * 所以配置中turboFilter需要声明在appender之前(见fastlog-base.xml)
+ * <p>
+ * 注意: TurboFilter对整个LoggerContext生效, 拒绝的日志其他appender(控制台、文件)也不会输出,
+ * 包括始终排除的ch.qos.logback、org.apache.pulsar、org.apache.kafka, 所以需要通过 fastlog.turboFilter 显式开启
+ *
+ * @author zmh
+ */
+public class FastLogTurboFilter extends TurboFilter {
+
+    @Getter
+    @Setter
+    private boolean enable;
+
+    // FastLogAppender启动时设置, 停止时清空
+    @Getter
+    @Setter
+    private volatile LoggerRules loggerRules;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!enable || isNull(level)) {
+            return FilterReply.NEUTRAL;
+        }
+        LoggerRules rules = loggerRules;
+        if (isNull(rules)) {
+            return FilterReply.NEUTRAL;
+        }
+        return rules.isExclude(logger.getName(), level) ? FilterReply.DENY : FilterReply.NEUTRAL;
+    }
+}
@@ -78,6 +78,263 @@ public class FastLogConfig {
      */
     private String fileCompressType;
 
+    /**
+     * 日志缓冲区(ringbuffer)满了之后的处理策略
+     * block: 一直阻塞等待，直到缓冲区有空位
+     * dropNewest: 直接丢弃当前日志，不阻塞业务线程
+     * dropByLevel: 低于overflowKeepLevel的日志直接丢弃，不低于的日志最多等待overflowBlockMicros，超时丢弃
+     * blockWithDeadline: 最多等待overflowBlockMicros，超时丢弃
+     * 默认：block
+     */
+    private String overflowPolicy = "block";
+
+    /**
+     * 缓冲区满时，业务线程最多等待的时间，overflowPolicy为dropByLevel和blockWithDeadline时生效
+     * 单位：微秒
+     * 默认：500
+     */
+    private int overflowBlockMicros = 500;
+
+    /**
+     * overflowPolicy为dropByLevel时，不低于这个级别的日志才会等待，低于这个级别的日志直接丢弃
+     * 默认：WARN
+     */
+    private String overflowKeepLevel = "WARN";
+
+    /**
+     * 按缓冲区占用逐级丢弃低级别日志，格式为 级别:缓冲区占用比例，多个用逗号分隔，例如 DEBUG:0.5,INFO:0.7,WARN:0.9，
+     * 占用达到比例后该级别的日志直接丢弃，不再进入缓冲区，日志突增时DEBUG最先丢弃，WARN和ERROR最后，每个级别单独统计丢弃数，
+     * 没有配置的级别沿用比它高的级别中最小的比例
+     * 默认：空，不按级别丢弃
+     */
+    private String loadShedding = "";
+
+    /**
+     * 只发送这些logger的日志，逗号分隔的logger名称前缀，与excludeLoggers同时匹配时最长的前缀生效
+     * 默认：空，发送所有logger的日志
+     */
+    private String includeLoggers = "";
+
+    /**
+     * 不发送这些logger的日志，逗号分隔的logger名称前缀，
+     * ch.qos.logback、org.apache.pulsar、org.apache.kafka 始终排除
+     * 默认：空
+     */
+    private String excludeLoggers = "";
+
+    /**
+     * 按logger名称前缀配置发送的最低级别，格式为 前缀:级别，多个用逗号分隔，例如 com.zmh:DEBUG,org.springframework:WARN，
+     * 最长的前缀生效
+     * 默认：空，不限制级别
+     */
+    private String loggerLevels = "";
+
+    /**
+     * 按调用点(logger名称 + 日志模板)限流，每个调用点每秒最多发送的日志条数，超过的日志直接丢弃，
+     * 每个汇总周期结束时为有丢弃的调用点发送一条WARN日志，记录丢弃的条数
+     * 默认：0，不限流
+     */
+    private int rateLimit = 0;
+
+    /**
+     * 每个调用点允许的突发日志条数
+     * 默认：0，与rateLimit相同
+     */
+    private int rateLimitBurst = 0;
+
+    /**
+     * 限流汇总日志的周期
+     * 单位：秒
+     * 默认：10
+     */
+    private int rateLimitSummarySeconds = 10;
+
+    /**
+     * 连续重复日志的合并窗口，logger、级别、格式化后的消息和异常类型都相同的连续日志视为重复，
+     * 第一条照常发送，窗口内之后的重复日志合并为一条，带上repeat、firstTs(第一条日志的时间)、lastTs字段
+     * 注意：开启后每条日志都需要生成格式化后的消息来计算指纹，fusedMqHandler开启时不生效
+     * 单位：毫秒
+     * 默认：0，不合并
+     */
+    private int coalesceMillis = 0;
+
+    /**
+     * 尾部采样的级别，低于这个级别的日志先按上下文缓存在内存中，同一上下文出现ERROR时才连同ERROR一起发送，
+     * 超过tailSamplingWindowSeconds没有ERROR的日志直接丢弃，例如INFO表示DEBUG和TRACE日志只在出错时发送
+     * 默认：空，不采样
+     */
+    private String tailSamplingLevel = "";
+
+    /**
+     * 尾部采样时每个上下文最多缓存的日志条数，超过后覆盖最早的日志
+     * 默认：256
+     */
+    private int tailSamplingBufferSize = 256;
+
+    /**
+     * 尾部采样时所有上下文合计最多缓存的日志条数，达到后新日志覆盖所在上下文最早的日志，上下文中还没有日志时直接丢弃
+     * 默认：100000
+     */
+    private int tailSamplingMaxEvents = 100000;
+
+    /**
+     * 尾部采样的时间窗口，ERROR日志只带出这个时间内的缓存日志
+     * 单位：秒
+     * 默认：10
+     */
+    private int tailSamplingWindowSeconds = 10;
+
+    /**
+     * 尾部采样按MDC中的这个字段区分上下文，例如traceId，为空或者日志没有这个字段时按线程区分
+     * 默认：空
+     */
+    private String tailSamplingTraceKey = "";
+
+    /**
+     * 头部采样率，按MDC中headSamplingTraceKey的哈希值保留这个比例的链路，同一条链路在所有实例上的决定相同，
+     * ERROR日志和没有链路id的日志总是保留，被丢弃的日志不做序列化
+     * 取值：0~1
+     * 默认：1，不采样
+     */
+    private double headSamplingRate = 1;
+
+    /**
+     * 头部采样使用的MDC字段
+     * 默认：traceId
+     */
+    private String headSamplingTraceKey = "traceId";
+
+    /**
+     * LogWorker的分片数，每个分片有独立的日志缓冲区和消费线程，业务线程按线程id选择分片，
+     * 多核机器上大量线程同时打日志时，可以避免所有线程竞争同一个缓冲区，总的缓冲区大小不变
+     * 默认：1 （不分片）
+     */
+    private int logShardCount = 1;
+
+    /**
+     * 业务线程本地暂存的日志条数，攒够一批后批量写入日志缓冲区，减少sequencer的竞争和消费者的唤醒次数，
+     * 不低于WARN级别的日志会立即触发写入
+     * 注意：暂存期间日志还没有序列化，日志参数对象在写入之前被修改，输出的是修改后的值
+     * 小于等于1表示不暂存，每条日志单独写入
+     * 默认：0
+     */
+    private int stagingBatchSize = 0;
+
+    /**
+     * 暂存的日志最多等待多久后写入日志缓冲区
+     * 单位：微秒
+     * 默认：200
+     */
+    private int stagingFlushMicros = 200;
+
+    /**
+     * 相同堆栈的异常在多长时间内只输出一次完整堆栈，之后只输出异常的第一行和throwableHash，
+     * 异常按类型和堆栈计算指纹，不包含message
+     * 小于等于0表示不去重，每次都输出完整堆栈
+     * 单位：秒
+     * 默认：0
+     */
+    private int throwableDedupSeconds = 0;
+
+    /**
+     * 是否在业务线程中提取日志的调用位置，写入caller字段，
+     * 只提取Logger之后的几层栈帧，比logback的includeCallerData开销小
+     * 默认：false
+     */
+    private boolean includeCallerData = false;
+
+    /**
+     * 日志的序列化格式
+     * json: 默认，可读性好
+     * cbor: 二进制格式，字节数更少，缓冲区、磁盘缓存和mq的每个批次可以容纳更多日志，消费端需要使用CBOR解码
+     * 也可以配置自定义EventEncoder实现的类名
+     * 默认：json
+     */
+    private String eventEncoder = "json";
+
+    /**
+     * 日志序列化线程数，大于0时业务线程只把日志对象放入缓冲区，由这些线程并行序列化，
+     * 业务线程的开销最小，适合对响应时间敏感的服务，多个logShardCount时每个分片各自创建
+     * 注意：日志参数对象在序列化之前被修改，输出的是修改后的值
+     * 小于等于0表示在业务线程中直接序列化
+     * 默认：0
+     */
+    private int encoderThreads = 0;
+
+    /**
+     * 堆外数据块的总大小，大于0时日志序列化后复制到堆外，各个缓冲区之间只传递块号，减少堆内存占用和GC开销，
+     * 块数应覆盖各缓冲区中同时存在的日志数，不够时退回使用堆内数组
+     * 多个logShardCount时平均分给每个分片
+     * 单位：MB
+     * 默认：0，不使用堆外内存
+     */
+    private int offHeapSlabSize = 0;
+
+    /**
+     * 堆外数据块中每块的大小，序列化后超过这个大小的日志使用堆内数组
+     * 单位：字节
+     * 默认：2048
+     */
+    private int offHeapSlabBlockSize = 2048;
+
+    /**
+     * 缓冲池最多保留的缓冲总大小，超过2KB的日志缓冲在消费后归还缓冲池，再次序列化大日志时从池中借用，
+     * 各大小级别保留的数量按最近的日志大小分布分配
+     * 单位：MB
+     * 默认：16，0表示不保留
+     */
+    private int bufferPoolSize = 16;
+
+    /**
+     * 变长字节环形缓冲区的大小，大于0时日志缓冲区按字节分配，业务线程序列化后按实际长度写入，
+     * 短日志不会占用固定大小的槽位，高水位也按字节计算，此时logShardCount、encoderThreads、
+     * stagingBatchSize、offHeapSlabSize、coalesceMillis、fusedMqHandler和parallelDrain不生效，
+     * 每8字节另有一个4字节的记录头，实际占用的内存是配置值的1.5倍
+     * 单位：MB，向下取2的幂，最大1024
+     * 默认：0，使用按条数分配的缓冲区
+     */
+    private int byteRingSize = 0;
+
+    /**
+     * LogWorker缓冲区消费线程的等待策略，blocking、yielding、busy-spin、phased、adaptive，
+     * blocking空闲时不占用cpu，yielding、busy-spin延迟最低但会一直占用一个核，
+     * phased先自旋再阻塞，adaptive按流量调整，繁忙时自旋、空闲时阻塞
+     * 默认：blocking
+     */
+    private String logWaitStrategy = "blocking";
+
+    /**
+     * MqWorker缓冲区消费线程的等待策略，取值同logWaitStrategy
+     * 默认：blocking
+     */
+    private String mqWaitStrategy = "blocking";
+
+    /**
+     * FileWorker缓冲区消费线程的等待策略，取值同logWaitStrategy
+     * 默认：blocking
+     */
+    private String fileWaitStrategy = "blocking";
+
+    /**
+     * 是否把mq的发送放在LogWorker的缓冲区上，作为LogWorker之后的消费者直接发送，
+     * 不再经过MqWorker的缓冲区，每条日志少一次缓冲区之间的数据交换和线程切换，
+     * 发往mq和写入本地文件的日志都由这个消费者按顺序处理，mq未就绪或者发送会阻塞时不等待，
+     * 直接改写本地文件并切换到本地文件缓冲区，本地文件缓冲区中的日志仍然通过MqWorker发送，
+     * 开启后coalesceMillis不生效，byteRingSize大于0时不生效
+     * 默认：false
+     */
+    private boolean fusedMqHandler = false;
+
+    /**
+     * mq恢复后是否不等本地文件缓冲区发完，就把新日志直接发往mq，文件中积压的日志由FileWorker同时补发，
+     * 补发时给实时日志保留一半的mq缓冲区，长时间故障恢复后新日志不再经过磁盘的写入、压缩、读取和解压
+     * 注意：打开后日志到达mq的顺序不再严格按产生顺序，消费端可以按seq和ts字段重新排序，
+     * seq按日志写入LogWorker缓冲区的顺序分配，logShardCount大于1时只在同一分片内有序(seq对logShardCount取余即分片序号)，
+     * 分片之间本来就不保证顺序，byteRingSize大于0时不生效
+     * 默认：false，本地文件缓冲区发完后才切换到mq
+     */
+    private boolean parallelDrain = false;
+
     /**
      * Kafka的batchsize单位是字节
      * 根据默认的batchMessageSize来计算，128 * 512 = 64kB，64kB是一个Kafka分片对应的缓存区大小，
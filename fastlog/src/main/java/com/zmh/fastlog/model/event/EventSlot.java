@@ -1,37 +1,109 @@
 package com.zmh.fastlog.model.event;
 
 
+import ch.qos.logback.classic.spi.ILoggingEvent;
 import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.utils.BufferPool;
 
-import java.lang.ref.SoftReference;
-
-import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
 public class EventSlot {
-    private SoftReference<ByteData> softRef = new SoftReference<>(new ByteData());
+    // 常规日志的缓冲大小, 超过的缓冲在消费后归还缓冲池, 避免每个槽位长期持有大数组
+    private static final int RETAIN_CAPACITY = 2048;
 
-    private ByteData refKeep;
+    private final ByteData byteData = new ByteData();
 
-    public ByteData getByteData() {
-        if (nonNull(refKeep)) {
-            return refKeep;
-        }
-        ByteData event = this.softRef.get();
-        if (isNull(event)) {
-            event = new ByteData();
-            softRef = new SoftReference<>(event);
-        }
-        refKeep = event;
+    private final BufferPool pool;
+
+    // 由编码线程池序列化时, 业务线程只放入日志对象和日志的seq, 编码后清空
+    private ILoggingEvent event;
+    private long seq;
+
+    // 合并连续重复日志时使用, 由业务线程或编码线程计算, 消费线程先比较指纹, 指纹相同时再比较logger和消息
+    private long fingerprint;
+    private long timeStamp;
+    private String loggerName;
+    private String message;
+
+    // fusedMqHandler时由LogWorker标记, 同一缓冲区上的mq消费者只处理标记过的日志
+    // mqEpoch为0时写入本地文件, 大于0时发往mq, 值为LogWorker切换到mq的批次
+    private boolean staged;
+    private long mqEpoch;
+
+    public EventSlot() {
+        this(BufferPool.getDefault());
+    }
+
+    public EventSlot(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    public void setEvent(ILoggingEvent event, long seq) {
+        this.event = event;
+        this.seq = seq;
+    }
+
+    public ILoggingEvent getEvent() {
         return event;
     }
 
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setFingerprint(long fingerprint, long timeStamp, String loggerName, String message) {
+        this.fingerprint = fingerprint;
+        this.timeStamp = timeStamp;
+        this.loggerName = loggerName;
+        this.message = message;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setStaged(long mqEpoch) {
+        this.staged = true;
+        this.mqEpoch = mqEpoch;
+    }
+
+    public void clearStaged() {
+        this.staged = false;
+    }
+
+    public boolean isStaged() {
+        return staged;
+    }
+
+    public long getMqEpoch() {
+        return mqEpoch;
+    }
+
+    public ByteData getByteData() {
+        return byteData;
+    }
+
     public void clear() {
-        if (nonNull(refKeep)) {
-            if (refKeep.capacity() > 2048) {
-                softRef = new SoftReference<>(new ByteData());
-                refKeep = null;
-            }
+        event = null;
+        loggerName = null;
+        message = null;
+        byte[] data = byteData.getData();
+        if (nonNull(data) && data.length > RETAIN_CAPACITY) {
+            byteData.setData(null);
+            byteData.setDataLength(0);
+            pool.release(data);
         }
     }
 }
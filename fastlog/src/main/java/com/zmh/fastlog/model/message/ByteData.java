@@ -1,21 +1,40 @@
 package com.zmh.fastlog.model.message;
 
 import com.google.common.annotations.VisibleForTesting;
-import lombok.AllArgsConstructor;
+import com.zmh.fastlog.utils.DirectSlab;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.nio.ByteBuffer;
 
 import static java.lang.System.arraycopy;
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 public class ByteData {
     private long id;
     private byte[] data;
     private int dataLength;
 
+    // 数据存放在堆外slab中时的所在块, 此时data中的内容无效
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private DirectSlab slab;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private int slabBlock = -1;
+
+    public ByteData(long id, byte[] data, int dataLength) {
+        this.id = id;
+        this.data = data;
+        this.dataLength = dataLength;
+    }
+
     public int capacity() {
         if (isNull(data)) {
             return 0;
@@ -25,19 +44,83 @@ public class ByteData {
 
     public void switchData(ByteData byteData) {
         byte[] temp = byteData.getData();
+        DirectSlab tempSlab = byteData.slab;
+        int tempBlock = byteData.slabBlock;
 
         byteData.setId(id);
         byteData.setData(this.data);
         byteData.setDataLength(dataLength);
+        byteData.slab = this.slab;
+        byteData.slabBlock = this.slabBlock;
 
         this.data = temp;
+        this.slab = tempSlab;
+        this.slabBlock = tempBlock;
+    }
+
+    /**
+     * 把src中的数据复制到slab的空闲块中, 没有空闲块或者数据超过块大小时复制到堆内数组
+     */
+    public void store(ByteData src, DirectSlab slab) {
+        releaseSlab();
+        this.id = src.id;
+        this.dataLength = src.dataLength;
+        if (src.dataLength <= slab.getBlockSize()) {
+            int block = slab.allocate();
+            if (block >= 0) {
+                slab.write(block, src.data, src.dataLength);
+                this.slab = slab;
+                this.slabBlock = block;
+                return;
+            }
+        }
+        if (capacity() < src.dataLength) {
+            this.data = new byte[src.dataLength];
+        }
+        arraycopy(src.data, 0, this.data, 0, src.dataLength);
+    }
+
+    public boolean isDirect() {
+        return nonNull(slab);
+    }
+
+    /**
+     * 归还占用的slab块, 数据已经被最后一个环节处理完之后调用
+     */
+    public void releaseSlab() {
+        if (nonNull(slab)) {
+            slab.free(slabBlock);
+            slab = null;
+            slabBlock = -1;
+        }
+    }
+
+    /**
+     * @return 只包含有效数据的ByteBuffer, 不复制数据
+     */
+    public ByteBuffer toByteBuffer() {
+        if (nonNull(slab)) {
+            return slab.slice(slabBlock, dataLength);
+        }
+        return ByteBuffer.wrap(data, 0, dataLength);
+    }
+
+    /**
+     * 把有效数据复制到dest, 调用方保证dest的长度不小于dataLength
+     */
+    public void copyTo(byte[] dest) {
+        if (nonNull(slab)) {
+            slab.read(slabBlock, dest, dataLength);
+        } else {
+            arraycopy(data, 0, dest, 0, dataLength);
+        }
     }
 
     @VisibleForTesting
     public void apply(ByteData byteData) {
         byte[] bytes = new byte[dataLength];
 
-        arraycopy(data, 0, bytes, 0, dataLength);
+        copyTo(bytes);
 
         byteData.setId(this.getId());
         byteData.setData(bytes);
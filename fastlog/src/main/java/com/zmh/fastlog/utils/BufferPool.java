@@ -0,0 +1,191 @@
+package com.zmh.fastlog.utils;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.zmh.fastlog.utils.ScheduleUtils.scheduleWithFixedDelay;
+import static com.zmh.fastlog.utils.Utils.sneakyInvoke;
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 按大小分级的byte[]缓冲池, 用于超过常规大小的日志缓冲, 代替原来用完即丢、再用SoftReference兜底的做法
+ * <p>
+ * 1、缓冲按2的幂分级, 最小2KB, 最大1MB, 超过最大级别的缓冲不入池
+ * 2、池中保留的总字节数不超过maxRetainedBytes, 各级别能保留的数量按日志大小的直方图分配,
+ *    直方图每秒衰减一半, 跟随最近的日志大小分布变化
+ * 3、统计命中率和池中保留的字节数
+ *
+ * @author zmh
+ */
+public class BufferPool implements Closeable {
+
+    private static final int MIN_SHIFT = 11;
+    private static final int MAX_SHIFT = 20;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    private static final BufferPool DEFAULT = new BufferPool(16 << 20);
+
+    private volatile long maxRetainedBytes;
+
+    private final ArrayDeque<byte[]>[] free;
+    // 各级别最多保留的缓冲数量
+    private final int[] limits = new int[CLASS_COUNT];
+
+    // 日志大小的直方图, 每个级别一个计数
+    private final LongAdder[] histogram = new LongAdder[CLASS_COUNT];
+    // 衰减后的直方图, 只在rebalance中访问
+    private final double[] weights = new double[CLASS_COUNT];
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final ScheduledFuture<?> rebalanceSchedule;
+
+    /**
+     * 所有缓冲区共用的缓冲池
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.free = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            free[i] = new ArrayDeque<>();
+            histogram[i] = new LongAdder();
+        }
+        rebalance();
+        this.rebalanceSchedule = scheduleWithFixedDelay(this::rebalance, 1, 1, SECONDS);
+    }
+
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        rebalance();
+    }
+
+    /**
+     * 记录一条日志的大小, 用于分配各级别的保留数量
+     */
+    public void record(int size) {
+        histogram[classIndex(size)].increment();
+    }
+
+    /**
+     * @return 长度不小于minLength的缓冲, 在最大级别以内时长度为2的幂
+     */
+    public byte[] borrow(int minLength) {
+        if (minLength > 1 << MAX_SHIFT) {
+            missCount.increment();
+            return new byte[minLength];
+        }
+        int index = classIndex(minLength);
+        byte[] bytes;
+        ArrayDeque<byte[]> queue = free[index];
+        synchronized (queue) {
+            bytes = queue.pollLast();
+        }
+        if (isNull(bytes)) {
+            missCount.increment();
+            return new byte[1 << (index + MIN_SHIFT)];
+        }
+        hitCount.increment();
+        retainedBytes.addAndGet(-bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 归还缓冲, 长度不是某个级别的大小、该级别已满或者总字节数超限时直接丢弃
+     * 归还之后调用方不能再使用这个缓冲
+     */
+    public void release(byte[] bytes) {
+        int length = bytes.length;
+        if (Integer.bitCount(length) != 1 || length < 1 << MIN_SHIFT || length > 1 << MAX_SHIFT) {
+            return;
+        }
+        int index = Integer.numberOfTrailingZeros(length) - MIN_SHIFT;
+        if (retainedBytes.get() + length > maxRetainedBytes) {
+            return;
+        }
+        ArrayDeque<byte[]> queue = free[index];
+        synchronized (queue) {
+            if (queue.size() >= limits[index]) {
+                return;
+            }
+            queue.addLast(bytes);
+        }
+        retainedBytes.addAndGet(length);
+    }
+
+    private static int classIndex(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.min(shift, MAX_SHIFT) - MIN_SHIFT;
+    }
+
+    /**
+     * 按衰减后的直方图重新分配各级别的保留数量, 并释放超出的缓冲
+     */
+    private synchronized void rebalance() {
+        double total = 0;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            weights[i] = weights[i] / 2 + histogram[i].sumThenReset();
+            total += weights[i];
+        }
+        long budget = maxRetainedBytes;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            // 还没有日志时平均分配
+            double share = total > 0 ? weights[i] / total : 1.0 / CLASS_COUNT;
+            int limit = (int) Math.min(budget * share / (1 << (i + MIN_SHIFT)), Integer.MAX_VALUE);
+            ArrayDeque<byte[]> queue = free[i];
+            synchronized (queue) {
+                limits[i] = limit;
+                while (queue.size() > limit) {
+                    retainedBytes.addAndGet(-queue.pollFirst().length);
+                }
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return 命中率, 还没有借用过时返回0
+     */
+    public double getHitRate() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return 0 == total ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return 池中保留的缓冲的总字节数
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{hitRate=" + getHitRate() + ", retainedBytes=" + getRetainedBytes() + "}";
+    }
+
+    @Override
+    public void close() {
+        sneakyInvoke(() -> rebalanceSchedule.cancel(false));
+    }
+}
@@ -0,0 +1,294 @@
+package com.zmh.fastlog.utils;
+
+import static com.zmh.fastlog.utils.BufferUtils.marginToBuffer;
+import static java.util.Objects.isNull;
+
+/**
+ * 按CBOR(RFC 8949)编码日志, 与JsonByteBuilder相比:
+ * 1、整数按数值大小使用1/2/3/5/9个字节, 不需要转成十进制字符
+ * 2、字符串以长度开头, 不需要引号和转义
+ * 3、常用字段的key可以用0~23的整数代替, 只占1个字节
+ * <p>
+ * 一条日志编码为一个不定长的map(0xbf ... 0xff), 任意CBOR库都可以解码
+ *
+ * @author zmh
+ */
+public class CborByteBuilder implements StringAppender {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+
+    private static final byte MAP_BEGIN = (byte) 0xbf;
+    private static final byte BREAK = (byte) 0xff;
+    private static final byte NULL = (byte) 0xf6;
+
+    // 流式写入字符串时预留的头部长度, 1字节类型 + 4字节长度
+    private static final int STRING_HEADER_RESERVED = 5;
+
+    private byte[] bufferArray;
+    private int pos;
+
+    // 流式写入字符串时, 头部的位置
+    private int stringStart;
+    // 流式写入字符串时, 剩余可以写入的字符数
+    private int stringRemaining;
+    // 流式写入字符串时, 上一段末尾还没有配对的代理字符, 0表示没有
+    private char pendingSurrogate;
+
+    // 扩容时从缓冲池借用, 为null时直接申请
+    private final BufferPool pool;
+
+    public static CborByteBuilder create() {
+        return new CborByteBuilder(null);
+    }
+
+    /**
+     * 扩容时从pool中借用2的幂大小的缓冲, 扩容后的缓冲随日志交给下游, 由EventSlot归还
+     */
+    public static CborByteBuilder create(BufferPool pool) {
+        return new CborByteBuilder(pool);
+    }
+
+    private CborByteBuilder(BufferPool pool) {
+        this.pos = 0;
+        this.pool = pool;
+    }
+
+    public CborByteBuilder beginMap() {
+        return beginMap(null);
+    }
+
+    public CborByteBuilder beginMap(byte[] bytes) {
+        if (isNull(bytes)) {
+            bytes = new byte[1024];
+        }
+        this.bufferArray = bytes;
+        addByte(MAP_BEGIN);
+        return this;
+    }
+
+    /**
+     * 在已经结束的map末尾继续追加字段, 覆盖结尾的break
+     *
+     * @param length map的长度, 最后一个字节是break
+     */
+    public CborByteBuilder reopenMap(byte[] bytes, int length) {
+        this.bufferArray = bytes;
+        this.pos = length - 1;
+        return this;
+    }
+
+    public CborByteBuilder endMap() {
+        addByte(BREAK);
+        return this;
+    }
+
+    /**
+     * 使用整数作为key, 0~23只占1个字节
+     */
+    public CborByteBuilder key(int key) {
+        return value(key);
+    }
+
+    public CborByteBuilder key(String key) {
+        return value(key);
+    }
+
+    public CborByteBuilder value(long value) {
+        if (value >= 0) {
+            writeHeader(MAJOR_UNSIGNED, value);
+        } else {
+            writeHeader(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    public CborByteBuilder value(String value) {
+        if (isNull(value)) {
+            addByte(NULL);
+            return this;
+        }
+        return value(value, value.length());
+    }
+
+    /**
+     * @param maxLength 最多写入的字符数, 多于这个数量截取
+     */
+    public CborByteBuilder value(String value, int maxLength) {
+        if (isNull(value)) {
+            addByte(NULL);
+            return this;
+        }
+        return beginString(maxLength)
+            .appendString(value)
+            .endString();
+    }
+
+    /**
+     * 开始流式写入一个字符串值, 之后通过appendString分段写入, 最后调用endString结束,
+     * 先预留5个字节的头部, 结束时按实际长度改写头部
+     *
+     * @param maxLength 最多写入的字符数, 多于这个数量截取
+     */
+    public CborByteBuilder beginString(int maxLength) {
+        ensureCapacity(STRING_HEADER_RESERVED);
+        this.stringStart = this.pos;
+        this.pos += STRING_HEADER_RESERVED;
+        this.stringRemaining = maxLength;
+        this.pendingSurrogate = 0;
+        return this;
+    }
+
+    @Override
+    public CborByteBuilder appendString(CharSequence str) {
+        return appendString(str, 0, str.length());
+    }
+
+    @Override
+    public CborByteBuilder appendString(CharSequence str, int start, int end) {
+        int length = Math.min(end - start, stringRemaining);
+        if (length <= 0) {
+            return this;
+        }
+        stringRemaining -= length;
+        end = start + length;
+
+        int len = length * 3 + 4;
+        if (this.bufferArray.length - this.pos < len) {
+            ensureCapacity(len);
+        }
+        byte[] arr = this.bufferArray;
+        int pos = this.pos;
+
+        int sIndex = start;
+        if (0 != pendingSurrogate) {
+            char next = str.charAt(sIndex);
+            if (Character.isLowSurrogate(next)) {
+                pos = writeCodePoint(arr, pos, Character.toCodePoint(pendingSurrogate, next));
+                sIndex++;
+            } else {
+                arr[pos++] = (byte) '?';
+            }
+            pendingSurrogate = 0;
+        }
+        for (; sIndex < end; sIndex++) {
+            char c = str.charAt(sIndex);
+            if (c < '\u0080') {
+                arr[pos++] = (byte) c;
+            } else if (c < '\u0800') {
+                arr[pos++] = (byte) (192 | c >>> 6);
+                arr[pos++] = (byte) (128 | c & 63);
+            } else if (c < '\ud800' || c > '\udfff') {
+                arr[pos++] = (byte) (224 | c >>> 12);
+                arr[pos++] = (byte) (128 | c >>> 6 & 63);
+                arr[pos++] = (byte) (128 | c & 63);
+            } else if (!Character.isHighSurrogate(c)) {
+                // 单独的低位代理字符
+                arr[pos++] = (byte) '?';
+            } else if (sIndex + 1 == end) {
+                // 高位代理字符在分段的末尾, 等下一段的第一个字符
+                pendingSurrogate = c;
+            } else if (Character.isLowSurrogate(str.charAt(sIndex + 1))) {
+                pos = writeCodePoint(arr, pos, Character.toCodePoint(c, str.charAt(++sIndex)));
+            } else {
+                arr[pos++] = (byte) '?';
+            }
+        }
+
+        this.pos = pos;
+        return this;
+    }
+
+    @Override
+    public boolean isStringFull() {
+        return stringRemaining <= 0;
+    }
+
+    public CborByteBuilder endString() {
+        if (0 != pendingSurrogate) {
+            addByte((byte) '?');
+            pendingSurrogate = 0;
+        }
+        int contentStart = stringStart + STRING_HEADER_RESERVED;
+        int length = pos - contentStart;
+
+        // 按实际长度写入头部, 头部比预留的短时把内容前移
+        this.pos = stringStart;
+        writeHeader(MAJOR_TEXT, length);
+        if (this.pos != contentStart) {
+            System.arraycopy(bufferArray, contentStart, bufferArray, this.pos, length);
+        }
+        this.pos += length;
+        return this;
+    }
+
+    private static int writeCodePoint(byte[] arr, int pos, int cp) {
+        arr[pos++] = (byte) (240 | cp >>> 18);
+        arr[pos++] = (byte) (128 | cp >>> 12 & 63);
+        arr[pos++] = (byte) (128 | cp >>> 6 & 63);
+        arr[pos++] = (byte) (128 | cp & 63);
+        return pos;
+    }
+
+    private void writeHeader(int major, long value) {
+        ensureCapacity(9);
+        byte[] arr = this.bufferArray;
+        int pos = this.pos;
+        int type = major << 5;
+        if (value < 24) {
+            arr[pos++] = (byte) (type | value);
+        } else if (value < 1L << 8) {
+            arr[pos++] = (byte) (type | 24);
+            arr[pos++] = (byte) value;
+        } else if (value < 1L << 16) {
+            arr[pos++] = (byte) (type | 25);
+            arr[pos++] = (byte) (value >>> 8);
+            arr[pos++] = (byte) value;
+        } else if (value < 1L << 32) {
+            arr[pos++] = (byte) (type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                arr[pos++] = (byte) (value >>> shift);
+            }
+        } else {
+            arr[pos++] = (byte) (type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                arr[pos++] = (byte) (value >>> shift);
+            }
+        }
+        this.pos = pos;
+    }
+
+    public byte[] array() {
+        return bufferArray;
+    }
+
+    public int pos() {
+        return pos;
+    }
+
+    public CborByteBuilder clear() {
+        this.pos = 0;
+        return this;
+    }
+
+    private void addByte(byte b) {
+        ensureCapacity(1);
+        this.bufferArray[pos++] = b;
+    }
+
+    private void ensureCapacity(int length) {
+        int additionLength = pos + length;
+        if (bufferArray.length < additionLength) {
+            byte[] src = bufferArray;
+
+            additionLength += Math.min(additionLength, pos);
+            if (isNull(pool)) {
+                bufferArray = new byte[marginToBuffer(additionLength)];
+            } else {
+                bufferArray = pool.borrow(additionLength);
+            }
+            System.arraycopy(src, 0, bufferArray, 0, pos);
+        }
+    }
+}
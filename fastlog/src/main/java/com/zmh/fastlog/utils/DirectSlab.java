@@ -0,0 +1,121 @@
+package com.zmh.fastlog.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外的日志数据块, 一次申请一整块DirectByteBuffer, 按固定大小切分成块,
+ * 日志序列化后复制到其中一块, 缓冲区之间只传递块号和长度, 最后一个环节处理完后归还
+ * <p>
+ * 日志数据不再占用堆内存, 各个缓冲区也不再各自持有大量byte[], 减少GC扫描和大数组被回收后重新申请的开销
+ * <p>
+ * 空闲块用无锁栈管理, 栈顶带版本号防止ABA, 申请和归还可以在任意线程中进行
+ *
+ * @author zmh
+ */
+public class DirectSlab {
+
+    private final ByteBuffer buffer;
+    private final int blockSize;
+    private final int blockCount;
+
+    // 空闲块链表, next.get(i)是块i下面的块号+1, 0表示栈底
+    private final AtomicIntegerArray next;
+    // 高32位是版本号, 低32位是栈顶的块号+1, 0表示没有空闲块
+    private final AtomicLong head = new AtomicLong();
+
+    // 每个线程单独的视图, 读写时修改position和limit不会互相影响
+    private final ThreadLocal<ByteBuffer> views;
+
+    public DirectSlab(int blockSize, int blockCount) {
+        if (blockSize <= 0 || blockCount <= 0) {
+            throw new IllegalArgumentException("blockSize and blockCount must be positive");
+        }
+        if ((long) blockSize * blockCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slab size must be less than 2GB");
+        }
+        this.blockSize = blockSize;
+        this.blockCount = blockCount;
+        this.buffer = ByteBuffer.allocateDirect(blockSize * blockCount);
+        this.views = ThreadLocal.withInitial(buffer::duplicate);
+        this.next = new AtomicIntegerArray(blockCount);
+        for (int i = blockCount - 1; i >= 0; i--) {
+            free(i);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return 块号, 没有空闲块时返回-1
+     */
+    public int allocate() {
+        while (true) {
+            long h = head.get();
+            int top = (int) h;
+            if (0 == top) {
+                return -1;
+            }
+            long newHead = ((h >>> 32) + 1) << 32 | (next.get(top - 1) & 0xffffffffL);
+            if (head.compareAndSet(h, newHead)) {
+                return top - 1;
+            }
+        }
+    }
+
+    public void free(int block) {
+        while (true) {
+            long h = head.get();
+            next.set(block, (int) h);
+            long newHead = ((h >>> 32) + 1) << 32 | (block + 1);
+            if (head.compareAndSet(h, newHead)) {
+                return;
+            }
+        }
+    }
+
+    public void write(int block, byte[] src, int length) {
+        ByteBuffer view = views.get();
+        view.clear();
+        view.position(block * blockSize);
+        view.put(src, 0, length);
+    }
+
+    public void read(int block, byte[] dest, int length) {
+        ByteBuffer view = views.get();
+        view.clear();
+        view.position(block * blockSize);
+        view.get(dest, 0, length);
+    }
+
+    /**
+     * @return 只包含这块数据的ByteBuffer, position为0, limit为length
+     */
+    public ByteBuffer slice(int block, int length) {
+        ByteBuffer view = buffer.duplicate();
+        int offset = block * blockSize;
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    /**
+     * 空闲块数量, 需要遍历链表, 仅用于监控和测试
+     */
+    public int freeCount() {
+        int count = 0;
+        int top = (int) head.get();
+        while (0 != top && count <= blockCount) {
+            count++;
+            top = next.get(top - 1);
+        }
+        return count;
+    }
+}
@@ -3,11 +3,12 @@ package com.zmh.fastlog.utils;
 import lombok.NonNull;
 
 import java.util.Calendar;
+import java.util.TimeZone;
 
 import static com.zmh.fastlog.utils.BufferUtils.marginToBuffer;
 import static java.util.Objects.isNull;
 
-public class JsonByteBuilder {
+public class JsonByteBuilder implements StringAppender {
 
     private final static byte[] escapeTab = new byte[128];
 
@@ -26,15 +27,34 @@ public class JsonByteBuilder {
         escapeTab[92] = 2; // \ 反斜杠 092
     }
 
+    // 按默认时区编码时间, 与 new Calendar.Builder().build() 使用的时区一致
+    private final static TimestampEncoder TIMESTAMP_ENCODER = new TimestampEncoder(TimeZone.getDefault());
+
     private byte[] bufferArray;
     private int pos;
 
+    // 流式写入字符串时, 剩余可以写入的字符数
+    private int stringRemaining;
+    // 流式写入字符串时, 上一段末尾还没有配对的代理字符, 0表示没有
+    private char pendingSurrogate;
+
+    // 扩容时从缓冲池借用, 为null时直接申请
+    private final BufferPool pool;
+
     public static JsonByteBuilder create() {
-        return new JsonByteBuilder();
+        return new JsonByteBuilder(null);
     }
 
-    private JsonByteBuilder() {
+    /**
+     * 扩容时从pool中借用2的幂大小的缓冲, 扩容后的缓冲随日志交给下游, 由EventSlot归还
+     */
+    public static JsonByteBuilder create(BufferPool pool) {
+        return new JsonByteBuilder(pool);
+    }
+
+    private JsonByteBuilder(BufferPool pool) {
         this.pos = 0;
+        this.pool = pool;
     }
 
     public JsonByteBuilder beginObject() {
@@ -51,6 +71,20 @@ public class JsonByteBuilder {
         return this;
     }
 
+    /**
+     * 在已经结束的对象末尾继续追加字段, 覆盖结尾的'}'
+     *
+     * @param length 对象的长度, 最后一个字节是'}'
+     */
+    public JsonByteBuilder reopenObject(byte[] bytes, int length) {
+        this.bufferArray = bytes;
+        this.pos = length - 1;
+        if (pos > 1) {
+            addAscii((byte) ',');
+        }
+        return this;
+    }
+
     public JsonByteBuilder endObject() {
         removeRedundantComma();
         addAscii((byte) '}');
@@ -69,6 +103,58 @@ public class JsonByteBuilder {
         return this;
     }
 
+    /**
+     * 直接写入已经编码好的json片段
+     */
+    public JsonByteBuilder raw(byte[] bytes) {
+        int len = bytes.length;
+        if (this.bufferArray.length - this.pos < len) {
+            ensureCapacity(len);
+        }
+        System.arraycopy(bytes, 0, this.bufferArray, this.pos, len);
+        this.pos += len;
+        return this;
+    }
+
+    /**
+     * 写入 "key":"value", 优先使用缓存中已经编码好的片段
+     */
+    public JsonByteBuilder field(JsonFieldCache cache, String value) {
+        byte[] bytes = cache.get(value);
+        if (isNull(bytes)) {
+            return key(cache.getKey()).value(value);
+        }
+        return raw(bytes);
+    }
+
+    /**
+     * 把 "key":"value", 编码成字节数组, 与key(key).value(value)的输出一致
+     */
+    public static byte[] encodeField(String key, String value) {
+        JsonByteBuilder builder = new JsonByteBuilder(null)
+            .beginObject(new byte[64])
+            .key(key)
+            .value(value);
+        byte[] bytes = new byte[builder.pos - 1];
+        System.arraycopy(builder.bufferArray, 1, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * 编码字符串的内容部分, 不含两侧的引号, 用于流式写入字符串时通过raw写入缓存的片段
+     */
+    public static byte[] encodeString(String value) {
+        JsonByteBuilder builder = new JsonByteBuilder(null)
+            .beginObject(new byte[64])
+            .beginString(value.length())
+            .appendString(value)
+            .endString();
+        // 去掉开头的 {" 和结尾的 ",
+        byte[] bytes = new byte[builder.pos - 4];
+        System.arraycopy(builder.bufferArray, 2, bytes, 0, bytes.length);
+        return bytes;
+    }
+
     public JsonByteBuilder value(String value) {
         if (isNull(value)) {
             writeString("null");
@@ -78,6 +164,23 @@ public class JsonByteBuilder {
         return value(value, value.length());
     }
 
+    /**
+     * 写入 "yyyy-MM-dd HH:mm:ss.SSS" 格式的时间, 输出与value(Calendar)一致,
+     * 同一秒内的时间共用缓存的前缀, 可以多线程并发调用
+     */
+    public JsonByteBuilder timestamp(long epochMillis) {
+        if (this.bufferArray.length - this.pos < TimestampEncoder.MAX_LENGTH + 1) {
+            ensureCapacity(TimestampEncoder.MAX_LENGTH + 1);
+        }
+        this.pos = TIMESTAMP_ENCODER.write(epochMillis, this.bufferArray, this.pos);
+        this.bufferArray[pos++] = (byte) ',';
+        return this;
+    }
+
+    /**
+     * Calendar不是线程安全的, 且字段计算较慢, 日志序列化请使用timestamp(long)
+     */
+    @Deprecated
     public JsonByteBuilder value(Calendar calendar) {
         ensureCapacity(30);
         this.bufferArray[pos++] = (byte) '"';
@@ -256,9 +359,11 @@ public class JsonByteBuilder {
             byte[] src = bufferArray;
 
             additionLength += Math.min(additionLength, pos);
-            additionLength = marginToBuffer(additionLength);
-
-            bufferArray = new byte[additionLength];
+            if (isNull(pool)) {
+                bufferArray = new byte[marginToBuffer(additionLength)];
+            } else {
+                bufferArray = pool.borrow(additionLength);
+            }
             System.arraycopy(src, 0, bufferArray, 0, pos);
         }
     }
@@ -330,6 +435,111 @@ public class JsonByteBuilder {
         this.pos = pos;
     }
 
+    /**
+     * 开始流式写入一个字符串值, 之后通过appendString分段写入, 最后调用endString结束,
+     * 输出与value(String, maxLength)写入所有分段拼接后的字符串一致
+     *
+     * @param maxLength 最多写入的字符数, 多于这个数量截取
+     */
+    public JsonByteBuilder beginString(int maxLength) {
+        addAscii((byte) '"');
+        this.stringRemaining = maxLength;
+        this.pendingSurrogate = 0;
+        return this;
+    }
+
+    @Override
+    public JsonByteBuilder appendString(CharSequence str) {
+        return appendString(str, 0, str.length());
+    }
+
+    @Override
+    public JsonByteBuilder appendString(CharSequence str, int start, int end) {
+        int length = Math.min(end - start, stringRemaining);
+        if (length <= 0) {
+            return this;
+        }
+        stringRemaining -= length;
+        end = start + length;
+
+        int len = length * 6;
+        if (this.bufferArray.length - this.pos < len) {
+            ensureCapacity(len);
+        }
+        byte[] arr = this.bufferArray;
+        int pos = this.pos;
+
+        int sIndex = start;
+        if (0 != pendingSurrogate) {
+            pos = writeSurrogatePair(arr, pos, pendingSurrogate, str.charAt(sIndex++));
+            pendingSurrogate = 0;
+        }
+        for (; sIndex < end; sIndex++) {
+            char c = str.charAt(sIndex);
+
+            if (c < '\u0080') {
+                byte b = (byte) c;
+
+                if (escapeTab[b] == 0) {
+                    arr[pos++] = b;
+                } else if (escapeTab[b] == 2) {
+                    arr[pos++] = 92; // 92 = \
+                    arr[pos++] = b;
+                } else {
+                    arr[pos++] = 92; // 92 = \
+                    arr[pos++] = 117; // 117 = u
+                    arr[pos++] = 48; // 48 = 0
+                    arr[pos++] = 48; // 48 = 0
+                    arr[pos++] = HEX_BYTE[b >> 4];
+                    arr[pos++] = HEX_BYTE[b & 0x0f];
+                }
+            } else if (c < '\u0800') {
+                arr[pos++] = (byte) (192 | c >>> 6);
+                arr[pos++] = (byte) (128 | c & 63);
+            } else if (c < '\ud800' || c > '\udfff') {
+                arr[pos++] = (byte) (224 | c >>> 12);
+                arr[pos++] = (byte) (128 | c >>> 6 & 63);
+                arr[pos++] = (byte) (128 | c & 63);
+            } else if (sIndex + 1 < end) {
+                pos = writeSurrogatePair(arr, pos, c, str.charAt(++sIndex));
+            } else {
+                // 代理字符在分段的末尾, 等下一段的第一个字符
+                pendingSurrogate = c;
+            }
+        }
+
+        this.pos = pos;
+        return this;
+    }
+
+    @Override
+    public boolean isStringFull() {
+        return stringRemaining <= 0;
+    }
+
+    public JsonByteBuilder endString() {
+        if (0 != pendingSurrogate) {
+            addAscii((byte) '?');
+            pendingSurrogate = 0;
+        }
+        addAscii((byte) '"');
+        addAscii((byte) ',');
+        return this;
+    }
+
+    private static int writeSurrogatePair(byte[] arr, int pos, char c, char next) {
+        int cp = Character.toCodePoint(c, next);
+        if ((cp >= 1 << 16) && (cp < 1 << 21)) {
+            arr[pos++] = (byte) (240 | cp >>> 18);
+            arr[pos++] = (byte) (128 | cp >>> 12 & 63);
+            arr[pos++] = (byte) (128 | cp >>> 6 & 63);
+            arr[pos++] = (byte) (128 | cp & 63);
+        } else {
+            arr[pos++] = (byte) '?';
+        }
+        return pos;
+    }
+
     private void removeRedundantComma() {
         if (bufferArray[pos - 1] == 44) {
             pos--;
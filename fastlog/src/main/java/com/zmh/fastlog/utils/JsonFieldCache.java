@@ -0,0 +1,74 @@
+package com.zmh.fastlog.utils;
+
+import lombok.Getter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * 缓存已经编码好的 "key":"value", 片段, 适用于logger、thread、level这类取值范围小且稳定的字段,
+ * 序列化时只需要一次arraycopy, 不需要每次都做转义和utf-8编码
+ * <p>
+ * 缓存数量有上限, 分为两代: 当前一代写满后整体变为上一代, 上一代中的值再次用到时移回当前一代,
+ * 两代都没有用到的值随上一代一起丢弃, 线程名这类不断出现新值的字段也不会把缓存永久占满
+ *
+ * @author zmh
+ */
+public class JsonFieldCache {
+
+    @Getter
+    private final String key;
+
+    // 每一代的数量上限, 两代合计不超过maxSize
+    private final int generationSize;
+
+    private volatile ConcurrentHashMap<String, byte[]> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<String, byte[]> previous = new ConcurrentHashMap<>();
+
+    public JsonFieldCache(String key, int maxSize) {
+        this.key = key;
+        this.generationSize = Math.max(1, maxSize >> 1);
+    }
+
+    /**
+     * @return 编码好的片段, 值为null时返回null
+     */
+    public byte[] get(String value) {
+        if (isNull(value)) {
+            return null;
+        }
+        ConcurrentHashMap<String, byte[]> current = this.current;
+        byte[] bytes = current.get(value);
+        if (nonNull(bytes)) {
+            return bytes;
+        }
+        bytes = previous.get(value);
+        if (isNull(bytes)) {
+            bytes = JsonByteBuilder.encodeField(key, value);
+        }
+        if (current.size() >= generationSize) {
+            current = rotate(current);
+        }
+        current.putIfAbsent(value, bytes);
+        return bytes;
+    }
+
+    private synchronized ConcurrentHashMap<String, byte[]> rotate(ConcurrentHashMap<String, byte[]> full) {
+        // 其他线程已经换代
+        if (this.current != full) {
+            return this.current;
+        }
+        previous = full;
+        current = new ConcurrentHashMap<>();
+        return current;
+    }
+
+    /**
+     * 两代缓存的数量之和
+     */
+    public int size() {
+        return current.size() + previous.size();
+    }
+}
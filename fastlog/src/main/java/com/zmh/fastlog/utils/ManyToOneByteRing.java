@@ -0,0 +1,172 @@
+package com.zmh.fastlog.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多生产者单消费者的变长字节环形缓冲区, 参考Aeron的ManyToOneRingBuffer
+ * <p>
+ * 1、生产者按实际长度申请空间(按8字节对齐), CAS推进tail, 复制数据后提交, 短日志不再占用一个固定大小的槽位
+ * 2、消费者在原数组上读取记录, 读完一批后统一推进head, 释放的空间按字节计算
+ * 3、记录不会跨越数组末尾, 剩余空间不够时写入一个填充记录, 从数组头部重新开始
+ * <p>
+ * 记录头(长度)单独放在AtomicIntegerArray中, 每8字节对应一个, 负数表示已申请但还没有提交,
+ * 提交时用lazySet写入正数, 保证消费者看到长度时数据已经写完。
+ * 记录头数组另外占用 capacity / 2 字节, 实际内存是capacity的1.5倍
+ *
+ * @author zmh
+ */
+public class ManyToOneByteRing {
+
+    private static final int ALIGNMENT_SHIFT = 3;
+    private static final int ALIGNMENT = 1 << ALIGNMENT_SHIFT;
+    // 填充记录的标识, 记录长度不会超过这个值
+    private static final int PADDING_FLAG = 1 << 30;
+
+    private final byte[] buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxRecordLength;
+
+    private final AtomicIntegerArray headers;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    // 生产者缓存的head, 空间足够时不需要读取消费者频繁修改的head
+    private volatile long headCache;
+
+    /**
+     * @param capacity 字节数, 必须是2的幂
+     */
+    public ManyToOneByteRing(int capacity) {
+        if (capacity < ALIGNMENT || Integer.bitCount(capacity) != 1 || capacity > PADDING_FLAG) {
+            throw new IllegalArgumentException("capacity must be a power of 2 between 8 and 1GB");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxRecordLength = Math.max(capacity >> 3, ALIGNMENT);
+        this.buffer = new byte[capacity];
+        this.headers = new AtomicIntegerArray(capacity >> ALIGNMENT_SHIFT);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int maxRecordLength() {
+        return maxRecordLength;
+    }
+
+    /**
+     * @return 已经申请还没有被消费者释放的字节数
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * 申请length字节的空间并复制src, 可以在任意线程中调用
+     *
+     * @return false 空间不足或者长度超过maxRecordLength
+     */
+    public boolean write(byte[] src, int offset, int length) {
+        if (length <= 0 || length > maxRecordLength) {
+            return false;
+        }
+        int index = claim(length);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(src, offset, buffer, index, length);
+        headers.lazySet(index >> ALIGNMENT_SHIFT, length);
+        return true;
+    }
+
+    private int claim(int length) {
+        int required = align(length);
+        long currentTail;
+        int tailIndex;
+        int padding;
+        do {
+            long currentHead = headCache;
+            currentTail = tail.get();
+            if (required > capacity - (int) (currentTail - currentHead)) {
+                currentHead = head.get();
+                if (required > capacity - (int) (currentTail - currentHead)) {
+                    return -1;
+                }
+                headCache = currentHead;
+            }
+
+            padding = 0;
+            tailIndex = (int) currentTail & mask;
+            int toBufferEnd = capacity - tailIndex;
+            if (required > toBufferEnd) {
+                // 末尾放不下, 跳到数组头部, 头部也需要有足够的已释放空间
+                int headIndex = (int) currentHead & mask;
+                if (required > headIndex || required + toBufferEnd > capacity - (int) (currentTail - currentHead)) {
+                    currentHead = head.get();
+                    headIndex = (int) currentHead & mask;
+                    if (required > headIndex || required + toBufferEnd > capacity - (int) (currentTail - currentHead)) {
+                        return -1;
+                    }
+                    headCache = currentHead;
+                }
+                padding = toBufferEnd;
+            }
+        } while (!tail.compareAndSet(currentTail, currentTail + required + padding));
+
+        if (0 != padding) {
+            headers.lazySet(tailIndex >> ALIGNMENT_SHIFT, PADDING_FLAG | padding);
+            tailIndex = 0;
+        }
+        headers.lazySet(tailIndex >> ALIGNMENT_SHIFT, -length);
+        return tailIndex;
+    }
+
+    /**
+     * 读取已提交的记录, 只能在消费者线程中调用, 遇到未提交的记录时停止
+     * handler返回后记录所在的空间即可能被生产者覆盖, 需要保留的数据要在handler中复制出来
+     *
+     * @param limit 本次最多读取的记录数
+     * @return 读取的记录数
+     */
+    public int read(RecordHandler handler, int limit) {
+        long currentHead = head.get();
+        int headIndex = (int) currentHead & mask;
+        int maxBlockLength = capacity - headIndex;
+        int bytesRead = 0;
+        int count = 0;
+        try {
+            while (bytesRead < maxBlockLength && count < limit) {
+                int index = headIndex + bytesRead;
+                int header = headers.get(index >> ALIGNMENT_SHIFT);
+                if (header <= 0) {
+                    break;
+                }
+                headers.set(index >> ALIGNMENT_SHIFT, 0);
+                if ((header & PADDING_FLAG) != 0) {
+                    bytesRead += header & ~PADDING_FLAG;
+                    continue;
+                }
+                bytesRead += align(header);
+                count++;
+                handler.onRecord(buffer, index, header);
+            }
+        } finally {
+            if (bytesRead > 0) {
+                head.lazySet(currentHead + bytesRead);
+            }
+        }
+        return count;
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(byte[] buffer, int offset, int length);
+    }
+}
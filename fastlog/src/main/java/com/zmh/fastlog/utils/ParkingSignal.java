@@ -0,0 +1,59 @@
+package com.zmh.fastlog.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 等待另一方通知的信号, 代替固定时间的sleep轮询, 条件可能满足时立即唤醒等待的线程
+ * <p>
+ * 用法: 先取version, 再检查条件, 条件不满足时await(version), 期间有signalAll时不会错过通知
+ *
+ * @author zmh
+ */
+public class ParkingSignal {
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * 等待到version发生变化或者超时
+     *
+     * @return true 收到了通知
+     */
+    public boolean await(long version, long timeoutNanos) {
+        if (this.version.get() != version) {
+            return true;
+        }
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (this.version.get() == version) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    public void signalAll() {
+        version.incrementAndGet();
+        if (!waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+}
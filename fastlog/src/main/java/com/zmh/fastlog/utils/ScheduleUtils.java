@@ -17,6 +17,10 @@ public class ScheduleUtils {
         return scheduledPool.scheduleAtFixedRate(runWithCatch(command), initialDelay, period, unit);
     }
 
+    public static ScheduledFuture<?> schedule(RethrowRunnable command, long delay, TimeUnit unit) {
+        return scheduledPool.schedule(runWithCatch(command), delay, unit);
+    }
+
     public static ScheduledFuture<?> scheduleWithFixedDelay(RethrowRunnable command, long initialDelay, long delay, TimeUnit unit) {
         return scheduledPool.scheduleWithFixedDelay(runWithCatch(command), initialDelay, delay, unit);
     }
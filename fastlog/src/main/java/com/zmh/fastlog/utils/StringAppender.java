@@ -0,0 +1,18 @@
+package com.zmh.fastlog.utils;
+
+/**
+ * 流式写入字符串值的分段, 由beginString开始、endString结束, 不同的编码格式共用日志内容、异常堆栈等的写入逻辑
+ *
+ * @author zmh
+ */
+public interface StringAppender {
+
+    StringAppender appendString(CharSequence str);
+
+    StringAppender appendString(CharSequence str, int start, int end);
+
+    /**
+     * 流式写入的字符串是否已经达到最大长度, 达到之后后续的分段不会再写入
+     */
+    boolean isStringFull();
+}
@@ -0,0 +1,107 @@
+package com.zmh.fastlog.utils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.TimeZone;
+
+/**
+ * 把毫秒时间戳编码成 "yyyy-MM-dd HH:mm:ss.SSS" 格式, 输出与Calendar按同一时区计算的结果一致
+ * <p>
+ * 同一秒内的日志共用已经编码好的 "yyyy-MM-dd HH:mm:ss. 前缀, 每条日志只需要写入毫秒部分,
+ * 前缀缓存在一个不可变对象中, 通过volatile引用发布, 多线程并发使用不需要加锁
+ *
+ * @author zmh
+ */
+public class TimestampEncoder {
+
+    // 编码后的最大长度, 4位年份时实际长度为25
+    public static final int MAX_LENGTH = 32;
+
+    private static final class SecondSlot {
+        // 这一秒开始时的utc毫秒时间戳, 有效范围 [startMillis, startMillis + 1000)
+        private final long startMillis;
+        // "yyyy-MM-dd HH:mm:ss.
+        private final byte[] prefix;
+
+        private SecondSlot(long startMillis, byte[] prefix) {
+            this.startMillis = startMillis;
+            this.prefix = prefix;
+        }
+    }
+
+    private final TimeZone timeZone;
+
+    private volatile SecondSlot slot = new SecondSlot(Long.MIN_VALUE, new byte[0]);
+
+    public TimestampEncoder(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * 写入 "yyyy-MM-dd HH:mm:ss.SSS" , 调用方需保证dest从pos开始至少有MAX_LENGTH的空间
+     *
+     * @return 写入后的位置
+     */
+    public int write(long epochMillis, byte[] dest, int pos) {
+        SecondSlot slot = this.slot;
+        long millisOfSecond = epochMillis - slot.startMillis;
+        if (millisOfSecond < 0 || millisOfSecond >= 1000) {
+            slot = newSlot(epochMillis);
+            this.slot = slot;
+            millisOfSecond = epochMillis - slot.startMillis;
+        }
+
+        byte[] prefix = slot.prefix;
+        System.arraycopy(prefix, 0, dest, pos, prefix.length);
+        pos += prefix.length;
+
+        int millis = (int) millisOfSecond;
+        dest[pos++] = (byte) (millis / 100 | 0x30);
+        dest[pos++] = (byte) (millis / 10 % 10 | 0x30);
+        dest[pos++] = (byte) (millis % 10 | 0x30);
+        dest[pos++] = (byte) '"';
+        return pos;
+    }
+
+    private SecondSlot newSlot(long epochMillis) {
+        int offset = timeZone.getOffset(epochMillis);
+        long localMillis = epochMillis + offset;
+        long localSecond = Math.floorDiv(localMillis, 1000);
+        LocalDateTime time = LocalDateTime.ofEpochSecond(localSecond, 0, ZoneOffset.UTC);
+
+        byte[] buffer = new byte[MAX_LENGTH];
+        int pos = 0;
+        buffer[pos++] = (byte) '"';
+        pos = writeYear(time.getYear(), buffer, pos);
+        buffer[pos++] = (byte) '-';
+        pos = writeTwoDigit(time.getMonthValue(), buffer, pos);
+        buffer[pos++] = (byte) '-';
+        pos = writeTwoDigit(time.getDayOfMonth(), buffer, pos);
+        buffer[pos++] = (byte) ' ';
+        pos = writeTwoDigit(time.getHour(), buffer, pos);
+        buffer[pos++] = (byte) ':';
+        pos = writeTwoDigit(time.getMinute(), buffer, pos);
+        buffer[pos++] = (byte) ':';
+        pos = writeTwoDigit(time.getSecond(), buffer, pos);
+        buffer[pos++] = (byte) '.';
+
+        byte[] prefix = new byte[pos];
+        System.arraycopy(buffer, 0, prefix, 0, pos);
+        return new SecondSlot(localSecond * 1000 - offset, prefix);
+    }
+
+    // 与JsonByteBuilder.value(Calendar)一致, 年份不补0
+    private static int writeYear(int year, byte[] arr, int pos) {
+        String str = Integer.toString(year);
+        for (int i = 0; i < str.length(); i++) {
+            arr[pos++] = (byte) str.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int writeTwoDigit(int value, byte[] arr, int pos) {
+        arr[pos++] = (byte) (value / 10 | 0x30);
+        arr[pos++] = (byte) (value % 10 | 0x30);
+        return pos;
+    }
+}
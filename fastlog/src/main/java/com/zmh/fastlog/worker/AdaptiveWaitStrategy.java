@@ -0,0 +1,69 @@
+package com.zmh.fastlog.worker;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.util.ThreadHints;
+
+/**
+ * 按流量自适应的等待策略: 先自旋, 再让出cpu, 最后交给阻塞策略
+ * <p>
+ * 1、自旋期间等到了日志, 说明流量大, 下次自旋次数加倍, 日志几乎不需要唤醒就能被处理
+ * 2、自旋没有等到日志, 说明比较空闲, 下次自旋次数减半, 很快就直接进入阻塞, 空闲时不占用cpu
+ * <p>
+ * 自旋次数在多个消费线程之间共用, 没有加锁, 只是一个估计值
+ *
+ * @author zmh
+ */
+public class AdaptiveWaitStrategy implements WaitStrategy {
+
+    static final int MIN_SPIN_TRIES = 64;
+    static final int MAX_SPIN_TRIES = 1 << 16;
+    private static final int YIELD_TRIES = 8;
+
+    private final WaitStrategy fallback;
+
+    private int spinTries = MIN_SPIN_TRIES;
+
+    public AdaptiveWaitStrategy(WaitStrategy fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier)
+        throws AlertException, InterruptedException, TimeoutException {
+        long availableSequence = dependentSequence.get();
+        if (availableSequence >= sequence) {
+            return availableSequence;
+        }
+        int tries = spinTries;
+        for (int i = 0; i < tries; i++) {
+            barrier.checkAlert();
+            ThreadHints.onSpinWait();
+            if ((availableSequence = dependentSequence.get()) >= sequence) {
+                spinTries = Math.min(tries << 1, MAX_SPIN_TRIES);
+                return availableSequence;
+            }
+        }
+        for (int i = 0; i < YIELD_TRIES; i++) {
+            barrier.checkAlert();
+            Thread.yield();
+            if ((availableSequence = dependentSequence.get()) >= sequence) {
+                return availableSequence;
+            }
+        }
+        spinTries = Math.max(tries >> 1, MIN_SPIN_TRIES);
+        return fallback.waitFor(sequence, cursor, dependentSequence, barrier);
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        fallback.signalAllWhenBlocking();
+    }
+
+    int getSpinTries() {
+        return spinTries;
+    }
+}
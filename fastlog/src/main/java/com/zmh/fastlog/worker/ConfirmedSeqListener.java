@@ -0,0 +1,14 @@
+package com.zmh.fastlog.worker;
+
+/**
+ * @author zmh
+ *
+ * mq已发送messageId的旁路通知, 不经过日志缓冲区, 也不创建LastConfirmedSeq对象
+ */
+public interface ConfirmedSeqListener {
+
+    /**
+     * 在MqWorker的消费线程中调用, 只记录水位, 由LogWorker的消费线程自己判断是否切换到mq, 不能阻塞
+     */
+    void onConfirmed(long messageId);
+}
@@ -0,0 +1,105 @@
+package com.zmh.fastlog.worker;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.LiteBlockingWaitStrategy;
+import com.lmax.disruptor.LiteTimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.util.ThreadHints;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * 各个worker缓冲区消费线程的等待策略, 对应配置项 logWaitStrategy、mqWaitStrategy、fileWaitStrategy
+ * blocking: 默认, 没有日志时阻塞, 空闲时不占用cpu, 由生产者唤醒
+ * yielding: 先自旋再让出cpu, 延迟低, 空闲时仍然占用一个核
+ * busy-spin: 一直自旋, 延迟最低, 需要有空闲的核
+ * phased: 先自旋, 再让出cpu, 最后阻塞
+ * adaptive: 按最近的流量调整自旋次数, 繁忙时自旋, 空闲时很快进入阻塞, 见AdaptiveWaitStrategy
+ * <p>
+ * timeout大于0时, 所有策略都保证空闲超过这个时间后回调消费者的onTimeout
+ *
+ * @author zmh
+ */
+public final class WaitStrategies {
+
+    private WaitStrategies() {
+    }
+
+    /**
+     * @param timeout 小于等于0表示不需要onTimeout回调
+     */
+    public static WaitStrategy create(String name, long timeout, TimeUnit unit) {
+        if (isNull(name) || name.isEmpty() || "blocking".equalsIgnoreCase(name)) {
+            return blocking(timeout, unit);
+        }
+        long timeoutNanos = timeout > 0 ? unit.toNanos(timeout) : 0;
+        switch (name.toLowerCase()) {
+            case "yielding":
+                return new SpinWaitStrategy(true, timeoutNanos);
+            case "busy-spin":
+                return new SpinWaitStrategy(false, timeoutNanos);
+            case "phased":
+                return new PhasedBackoffWaitStrategy(10, 100, MICROSECONDS, blocking(timeout, unit));
+            case "adaptive":
+                return new AdaptiveWaitStrategy(blocking(timeout, unit));
+            default:
+                throw new IllegalArgumentException("invalid waitStrategy: " + name);
+        }
+    }
+
+    private static WaitStrategy blocking(long timeout, TimeUnit unit) {
+        return timeout > 0 ? new LiteTimeoutBlockingWaitStrategy(timeout, unit) : new LiteBlockingWaitStrategy();
+    }
+
+    /**
+     * 自旋等待, 与Disruptor的YieldingWaitStrategy、BusySpinWaitStrategy相同, 增加了超时
+     */
+    static final class SpinWaitStrategy implements WaitStrategy {
+        // yielding先自旋的次数
+        private static final int SPIN_TRIES = 100;
+        // 每自旋多少次检查一次超时
+        private static final int TIMEOUT_CHECK_MASK = 0xff;
+
+        private final boolean yield;
+        private final long timeoutNanos;
+
+        SpinWaitStrategy(boolean yield, long timeoutNanos) {
+            this.yield = yield;
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier)
+            throws AlertException, TimeoutException {
+            long availableSequence = dependentSequence.get();
+            if (availableSequence >= sequence) {
+                return availableSequence;
+            }
+            long deadline = System.nanoTime() + timeoutNanos;
+            long counter = 0;
+            while ((availableSequence = dependentSequence.get()) < sequence) {
+                barrier.checkAlert();
+                if (yield && counter > SPIN_TRIES) {
+                    Thread.yield();
+                } else {
+                    ThreadHints.onSpinWait();
+                }
+                if ((++counter & TIMEOUT_CHECK_MASK) == 0 && timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+                    throw TimeoutException.INSTANCE;
+                }
+            }
+            return availableSequence;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+}
@@ -9,6 +9,13 @@ public interface Worker<MESSAGE> extends AutoCloseable {
 
     boolean enqueue(MESSAGE message);
 
+    /**
+     * 缓冲区满时不等待, 直接返回false, 供不能阻塞的定时任务线程使用
+     */
+    default boolean tryEnqueue(MESSAGE message) {
+        return enqueue(message);
+    }
+
     void close();
 }
 
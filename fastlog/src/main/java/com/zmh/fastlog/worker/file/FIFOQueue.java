@@ -239,11 +239,24 @@ class BytesCacheQueue {
 
         this.bytes.write4B(dataLength); //日志的长度 单位：字节
         this.bytes.write8B(byteData.getId());
-        this.bytes.writeNB(byteData.getData(), 0, dataLength);
+        if (byteData.isDirect()) {
+            if (dataLength > writeBuffer.length) {
+                writeBuffer = new byte[marginToBuffer(dataLength)];
+            }
+            byteData.copyTo(writeBuffer);
+            this.bytes.writeNB(writeBuffer, 0, dataLength);
+        } else {
+            this.bytes.writeNB(byteData.getData(), 0, dataLength);
+        }
         return true;
     }
 
-    private byte[] readBuffer = new byte[5120];
+    // 日志数据在堆外时, 先复制到这里再写入
+    private byte[] writeBuffer = new byte[0];
+
+    // 读出的日志通过switchData交给mq的槽位, 交换回来的是槽位原来的缓冲, 下次读取时复用它,
+    // 不能继续往已经交出去的数组中写入
+    private final ByteData readData = new ByteData(0, new byte[5120], 0);
 
     public ByteData get() {
         if (bytes.readableBytes() == 0) {
@@ -257,13 +270,15 @@ class BytesCacheQueue {
                 return null;
             }
 
-            if (readCount > readBuffer.length) {
-                readBuffer = new byte[marginToBuffer(readCount)];
+            if (readData.capacity() < readCount) {
+                readData.setData(new byte[marginToBuffer(readCount)]);
             }
             long id = this.bytes.readLong();
-            this.bytes.readBytes(readBuffer, 0, readCount);
+            this.bytes.readBytes(readData.getData(), 0, readCount);
 
-            return new ByteData(id, readBuffer, readCount);
+            readData.setId(id);
+            readData.setDataLength(readCount);
+            return readData;
         } else {
             //debugLog("fastlog BytesCacheQueue readCount error " + readCount + " read" + bytes.readerIndex() + " write" + bytes.writerIndex());
             this.bytes.reset();
@@ -7,12 +7,25 @@ import com.zmh.fastlog.config.FastLogConfig;
 import com.zmh.fastlog.model.event.EventSlot;
 import com.zmh.fastlog.model.message.ByteData;
 import com.zmh.fastlog.worker.AbstractWorker;
+import com.zmh.fastlog.worker.WaitStrategies;
+import com.zmh.fastlog.worker.log.ByteRingLogWorker;
 import com.zmh.fastlog.worker.mq.MqWorker;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import static com.zmh.fastlog.utils.ThreadUtils.namedDaemonThreadFactory;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+/**
+ * 本地文件缓冲区, 缓冲区中还没有写入磁盘的日志超过高水位时, 暂停从磁盘补发到mq, 优先写入新的日志
+ * <p>
+ * byteRingSize大于0时高水位按字节计算, 与ByteRingLogWorker一致, 为日志缓冲区字节数的1/4,
+ * 否则按条数计算, 为fileMemoryCacheSize, 缓冲区本身仍然是按条数分配的槽位
+ *
+ * @author zmh
+ */
 public class FileWorker extends AbstractWorker<ByteData, EventSlot>
     implements SequenceReportingEventHandler<EventSlot>, BatchStartAware, TimeoutHandler {
 
@@ -21,6 +34,8 @@ public class FileWorker extends AbstractWorker<ByteData, EventSlot>
     private final RingBuffer<EventSlot> ringBuffer;
     private final FIFOQueue fifo;
     private final int HIGH_WATER_LEVEL_FILE;
+    // byteRingSize大于0时, 缓冲区中还没有写入磁盘的字节数, 否则为空, 按条数计算
+    private final AtomicLong pendingBytes;
 
     private volatile boolean isClose;
 
@@ -29,28 +44,49 @@ public class FileWorker extends AbstractWorker<ByteData, EventSlot>
         fifo = new FIFOQueue(config.getFileCacheFolder(), batchSize, config.getFileCapacity(), config.getMaxFileCount(), config.getFileCompressType());
 
         this.mqWorker = mqWorker;
-        this.HIGH_WATER_LEVEL_FILE = batchSize;
+        if (config.getByteRingSize() > 0) {
+            this.HIGH_WATER_LEVEL_FILE = ByteRingLogWorker.ringCapacity(config.getByteRingSize()) >> 2;
+            this.pendingBytes = new AtomicLong();
+        } else {
+            this.HIGH_WATER_LEVEL_FILE = batchSize;
+            this.pendingBytes = null;
+        }
         queue = new Disruptor<>(
             EventSlot::new,
             batchSize << 2,
             namedDaemonThreadFactory("log-file-worker"),
-            ProducerType.SINGLE,
-            new LiteTimeoutBlockingWaitStrategy(10, MILLISECONDS)
+            config.getLogShardCount() > 1 ? ProducerType.MULTI : ProducerType.SINGLE, // LogWorker分片时多个分片同时写入
+            WaitStrategies.create(config.getFileWaitStrategy(), 10, MILLISECONDS)
         );
         queue.handleEventsWith(this);
         ringBuffer = queue.getRingBuffer();
         queue.start();
     }
 
+    /**
+     * @return false 已经关闭, 或者磁盘写入跟不上, 缓冲区已满, 由调用方决定等待还是丢弃
+     */
     @Override
     public boolean enqueue(ByteData byteData) {
-        ringBuffer.publishEvent((e, s) -> byteData.switchData(e.getByteData()));
+        int length = byteData.getDataLength();
+        if (isClose || !ringBuffer.tryPublishEvent((e, s) -> byteData.switchData(e.getByteData()))) {
+            return false;
+        }
+        if (nonNull(pendingBytes)) {
+            pendingBytes.addAndGet(length);
+        }
         return true;
     }
 
     @Override
     public void dequeue(EventSlot event, long sequence, boolean endOfBatch) {
-        fifo.put(event.getByteData());
+        ByteData byteData = event.getByteData();
+        if (nonNull(pendingBytes)) {
+            pendingBytes.addAndGet(-byteData.getDataLength());
+        }
+        fifo.put(byteData);
+        // 已经复制到文件缓冲区
+        byteData.releaseSlab();
         event.clear();
 
         if (notifySeq(sequence) || endOfBatch) {
@@ -61,14 +97,21 @@ public class FileWorker extends AbstractWorker<ByteData, EventSlot>
     @Override
     public void onTimeout(long sequence) {
         ByteData message;
-        while (ringBuffer.getCursor() - sequence <= HIGH_WATER_LEVEL_FILE && nonNull(message = fifo.get())) {
-            if (isClose || !mqWorker.enqueue(message)) {
+        while (backlog(sequence) <= HIGH_WATER_LEVEL_FILE && nonNull(message = fifo.get())) {
+            if (isClose || !mqWorker.enqueueBacklog(message)) {
                 return;
             }
             fifo.next();
         }
     }
 
+    /**
+     * 缓冲区中还没有写入磁盘的日志量, 单位与HIGH_WATER_LEVEL_FILE一致
+     */
+    private long backlog(long sequence) {
+        return isNull(pendingBytes) ? ringBuffer.getCursor() - sequence : pendingBytes.get();
+    }
+
     @Override
     public void close() {
         isClose = true;
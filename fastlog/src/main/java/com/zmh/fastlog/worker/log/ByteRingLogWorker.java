@@ -0,0 +1,236 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.model.message.LastConfirmedSeq;
+import com.zmh.fastlog.utils.BufferPool;
+import com.zmh.fastlog.utils.ManyToOneByteRing;
+import com.zmh.fastlog.worker.ConfirmedSeqListener;
+import com.zmh.fastlog.worker.Worker;
+import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.mq.MqWorker;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.val;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.zmh.fastlog.utils.ThreadUtils.namedDaemonThreadFactory;
+import static com.zmh.fastlog.utils.Utils.safeClose;
+import static java.util.Objects.nonNull;
+
+/**
+ * 使用变长字节环形缓冲区的LogWorker, 配置byteRingSize大于0时代替LogWorker
+ * <p>
+ * 业务线程序列化后按实际长度写入ManyToOneByteRing, 缓冲区容量和高水位都按字节计算,
+ * 短日志不会浪费固定槽位, 长日志也不会因为槽位数不够而被丢弃
+ * <p>
+ * 消费线程从缓冲区中读取日志, 与LogWorker相同, 通过LogRouter在mq和本地文件缓冲区之间切换
+ * 不支持logShardCount、encoderThreads、stagingBatchSize、offHeapSlabSize、coalesceMillis、fusedMqHandler和parallelDrain,
+ * 缓冲区本身已经是多生产者无锁写入
+ *
+ * @author zmh
+ */
+public class ByteRingLogWorker implements Worker<Object>, ConfirmedSeqListener {
+
+    // 高水位阈值, 单位字节, 含义同LogWorker
+    @Getter
+    private final int highWaterLevelMq;
+
+    private final ManyToOneByteRing ring;
+
+    final LogMissingCountAndPrint logMissingCount = new LogMissingCountAndPrint("log missing count");
+    final LogMissingCountAndPrint fileMissingCount = new LogMissingCountAndPrint("file missing count");
+
+    private boolean directWriteToMq = false;
+    // mq和本地文件缓冲区之间切换的依据和写入重试, 堆积按缓冲区已占用的字节数计算
+    private final LogRouter router;
+
+    private final EventEncoder messageConverter;
+
+    // 缓冲区满了之后的处理策略
+    private final OverflowHandler overflowHandler;
+
+    // 按logger名称过滤日志
+    private final LoggerRules loggerRules;
+
+    // 按缓冲区占用逐级丢弃低级别日志, 未配置时为空
+    private final LoadShedder loadShedder;
+
+    // 消费线程每读取这么多条日志释放一次缓冲区空间
+    private static final int READ_LIMIT = 128;
+
+    // 业务线程先序列化到线程本地的缓冲, 再按长度写入环形缓冲区
+    private final ThreadLocal<ByteData> encodeBuffer = ThreadLocal.withInitial(ByteData::new);
+    // 写入日志中的seq, 在写入缓冲区之前分配, 多个业务线程同时写入时不保证与缓冲区中的顺序一致
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 消费线程从环形缓冲区复制出来的日志, 交给mq或者file时与对方槽位交换数组
+    private final ByteData byteData = new ByteData();
+
+    private final Thread consumer;
+
+    private volatile boolean isClosed = false;
+
+    public ByteRingLogWorker(MqWorker mqWorker, FileWorker fileWorker, FastLogConfig config) {
+        this(mqWorker, fileWorker, config, ringCapacity(config.getByteRingSize()));
+    }
+
+    /**
+     * @param capacity 缓冲区字节数, 必须是2的幂
+     */
+    ByteRingLogWorker(MqWorker mqWorker, FileWorker fileWorker, FastLogConfig config, int capacity) {
+        this.messageConverter = EventEncoder.create(config);
+        this.overflowHandler = new OverflowHandler(config, () -> isClosed);
+
+        this.ring = new ManyToOneByteRing(capacity);
+        // 变长记录读出后立即释放空间, 没有需要提前丢弃的槽位, 只需要mq的高水位
+        this.highWaterLevelMq = (int) (capacity * 0.8);
+        // 初始时先通过file, parallelDrain不生效
+        this.router = new LogRouter(mqWorker, fileWorker, false, 1, highWaterLevelMq, ignore -> ring.size());
+        this.loadShedder = LoadShedder.create(config.getLoadShedding(), capacity);
+        this.loggerRules = new LoggerRules(config);
+
+        this.consumer = namedDaemonThreadFactory("log-byte-ring-worker").newThread(this::consume);
+        consumer.start();
+
+        mqWorker.registerLogWorker(this);
+    }
+
+    /**
+     * 单位MB, 向下取2的幂, 最大1GB
+     */
+    public static int ringCapacity(int sizeInMb) {
+        return Integer.highestOneBit(Math.max(1, Math.min(sizeInMb, 1024))) << 20;
+    }
+
+    /**
+     * @param message 入参有两种类型，1、正常日志 ILoggingEvent  2、mq发过来的已消费序号 LastSeq
+     * @return true 日志发送成功 false 日志发送失败
+     */
+    @Override
+    public boolean enqueue(Object message) {
+        if (message instanceof ILoggingEvent) {
+            val msg = (ILoggingEvent) message;
+            if (loggerRules.isExclude(msg.getLoggerName(), msg.getLevel())) {
+                return true;
+            }
+            if (nonNull(loadShedder) && loadShedder.shouldShed(msg.getLevel(), ring.size())) {
+                return false;
+            }
+            return publish(msg);
+        } else if (message instanceof LastConfirmedSeq) {
+            onConfirmed(((LastConfirmedSeq) message).getSeq());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 不按overflowPolicy等待, 缓冲区满时计入logMissingCount
+     */
+    @Override
+    public boolean tryEnqueue(Object message) {
+        if (!(message instanceof ILoggingEvent)) {
+            return enqueue(message);
+        }
+        val msg = (ILoggingEvent) message;
+        if (loggerRules.isExclude(msg.getLoggerName(), msg.getLevel())) {
+            return true;
+        }
+        ByteData buffer = encodeBuffer.get();
+        messageConverter.convertToByteData(msg, buffer, sequence.getAndIncrement());
+        if (ring.write(buffer.getData(), 0, buffer.getDataLength())) {
+            return true;
+        }
+        logMissingCount.increment();
+        return false;
+    }
+
+    @Override
+    public void onConfirmed(long messageId) {
+        router.onConfirmed(messageId);
+    }
+
+    /**
+     * 序列化后写入缓冲区，缓冲区满时按overflowPolicy处理，超过maxRecordLength的日志直接丢弃
+     */
+    private boolean publish(ILoggingEvent msg) {
+        ByteData buffer = encodeBuffer.get();
+        messageConverter.convertToByteData(msg, buffer, sequence.getAndIncrement());
+        if (ring.write(buffer.getData(), 0, buffer.getDataLength())) {
+            return true;
+        }
+        if (buffer.getDataLength() <= ring.maxRecordLength()
+            && overflowHandler.retry(msg.getLevel(), () -> ring.write(buffer.getData(), 0, buffer.getDataLength()))) {
+            return true;
+        }
+        logMissingCount.increment();
+        return false;
+    }
+
+    private void consume() {
+        int idleCount = 0;
+        while (true) {
+            if (ring.read(this::dequeue, READ_LIMIT) > 0) {
+                idleCount = 0;
+                continue;
+            }
+            if (isClosed) {
+                return;
+            }
+            // 先自旋, 再让出cpu, 最后短暂休眠
+            idleCount++;
+            if (idleCount > 200) {
+                LockSupport.parkNanos(100_000);
+            } else if (idleCount > 100) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // 日志id, 发送成功一条加1, 用于识别每条日志，方便后续切换mq使用
+    private long lastMessageId;
+
+    // 消费线程中执行, lastMessageId没有并发问题
+    private void dequeue(byte[] buffer, int offset, int length) {
+        if (!directWriteToMq && router.canSwitchToMq(lastMessageId)) {
+            directWriteToMq = true;
+        }
+        long messageId = lastMessageId + 1;
+
+        ByteData byteData = this.byteData;
+        if (byteData.capacity() < length) {
+            byteData.setData(BufferPool.getDefault().borrow(length));
+        }
+        System.arraycopy(buffer, offset, byteData.getData(), 0, length);
+        byteData.setDataLength(length);
+        byteData.setId(messageId);
+        BufferPool.getDefault().record(length);
+
+        // 写入失败, 切换到本地文件缓冲区
+        if (directWriteToMq && !router.sendToMq(byteData, 0)) {
+            directWriteToMq = false;
+            router.switchToFile(messageId);
+        }
+
+        if (!directWriteToMq && !router.writeToFile(byteData, 0)) {
+            fileMissingCount.increment();
+        }
+
+        lastMessageId = messageId;
+    }
+
+    @Override
+    @SneakyThrows
+    public void close() {
+        safeClose(loadShedder);
+        logMissingCount.close();
+        fileMissingCount.close();
+        isClosed = true;
+        router.close();
+        consumer.join();
+    }
+}
@@ -0,0 +1,207 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import static com.zmh.fastlog.utils.ScheduleUtils.scheduleAtFixedRate;
+import static com.zmh.fastlog.utils.Utils.sneakyInvoke;
+import static com.zmh.fastlog.utils.Utils.safeClose;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 按调用点限流, 调用点为logger名称 + 日志模板(ILoggingEvent.getMessage()), 对应配置项 rateLimit
+ * <p>
+ * 1、每个调用点一个令牌桶, 用GCRA实现, 桶的状态只有一个AtomicLong, 没有超过限制时每条日志只有两次map查找和一次CAS
+ * 2、超过限制的日志直接丢弃, 每个统计周期结束时为每个有丢弃的调用点生成一条WARN日志, 记录丢弃的条数
+ * 3、调用点数量超过上限后, 新的调用点不限流; 整个周期都没有日志的调用点会被清理, logger下没有调用点时一起清理
+ * 4、汇总日志在定时任务线程中发送, 不能阻塞, 日志缓冲区满时直接丢弃并计数
+ *
+ * @author zmh
+ */
+public class CallSiteRateLimiter implements Closeable {
+
+    // 汇总日志的logger名称
+    public static final String SUMMARY_LOGGER = "com.zmh.fastlog.RateLimit";
+
+    // 调用点数量上限
+    private static final int MAX_BUCKETS = 10000;
+
+    // 两次日志之间的间隔, 单位纳秒
+    private final long intervalNanos;
+    // 连续发送burst条日志占用的时间, 超过后开始丢弃
+    private final long burstNanos;
+    private final int windowSeconds;
+    private final long windowNanos;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Bucket>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger bucketCount = new AtomicInteger();
+
+    // 汇总日志的去向, 不能阻塞, 返回false表示没有写入
+    private final Predicate<ILoggingEvent> summarySink;
+    final LogMissingCountAndPrint summaryMissingCount = new LogMissingCountAndPrint("rate limit summary missing count");
+
+    private final ScheduledFuture<?> summarySchedule;
+
+    /**
+     * @return 没有配置rateLimit时返回null
+     */
+    public static CallSiteRateLimiter create(FastLogConfig config, Predicate<ILoggingEvent> summarySink) {
+        if (config.getRateLimit() <= 0) {
+            return null;
+        }
+        int burst = config.getRateLimitBurst() > 0 ? config.getRateLimitBurst() : config.getRateLimit();
+        return new CallSiteRateLimiter(config.getRateLimit(), burst, config.getRateLimitSummarySeconds(), summarySink);
+    }
+
+    /**
+     * @param permitsPerSecond 每个调用点每秒允许的日志条数
+     * @param burst            每个调用点允许的突发条数
+     * @param windowSeconds    汇总周期
+     */
+    public CallSiteRateLimiter(int permitsPerSecond, int burst, int windowSeconds, Predicate<ILoggingEvent> summarySink) {
+        this.intervalNanos = Math.max(1, SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.windowSeconds = Math.max(1, windowSeconds);
+        this.windowNanos = SECONDS.toNanos(this.windowSeconds);
+        this.summarySink = summarySink;
+        this.summarySchedule = scheduleAtFixedRate(this::summary, this.windowSeconds, this.windowSeconds, SECONDS);
+    }
+
+    /**
+     * @return false 超过限制, 丢弃当前日志
+     */
+    public boolean tryAcquire(ILoggingEvent event) {
+        return tryAcquire(event.getLoggerName(), event.getMessage(), System.nanoTime());
+    }
+
+    boolean tryAcquire(String logger, String pattern, long now) {
+        if (isNull(logger) || isNull(pattern)) {
+            return true;
+        }
+        Bucket bucket = bucket(logger, pattern);
+        if (isNull(bucket)) {
+            return true;
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    private Bucket bucket(String logger, String pattern) {
+        while (true) {
+            ConcurrentHashMap<String, Bucket> patterns = buckets.get(logger);
+            if (isNull(patterns)) {
+                patterns = buckets.computeIfAbsent(logger, key -> new ConcurrentHashMap<>());
+            }
+            Bucket bucket = patterns.get(pattern);
+            if (nonNull(bucket)) {
+                return bucket;
+            }
+            if (bucketCount.get() >= MAX_BUCKETS) {
+                return null;
+            }
+            bucket = patterns.computeIfAbsent(pattern, key -> {
+                bucketCount.incrementAndGet();
+                return new Bucket(logger, key);
+            });
+            if (buckets.get(logger) == patterns) {
+                return bucket;
+            }
+            // logger刚被summary清理, 移出旧的map后重新加入
+            if (patterns.remove(pattern, bucket)) {
+                bucketCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 为每个有丢弃的调用点生成汇总日志, 并清理整个周期都没有日志的调用点
+     */
+    void summary() {
+        summary(System.nanoTime());
+    }
+
+    void summary(long now) {
+        buckets.forEach((logger, patterns) -> {
+            patterns.forEach((pattern, bucket) -> {
+                long suppressed = bucket.suppressed.sumThenReset();
+                if (suppressed > 0) {
+                    if (!summarySink.test(summaryEvent(bucket, suppressed))) {
+                        summaryMissingCount.increment();
+                    }
+                } else if (now - bucket.tat.get() > windowNanos && patterns.remove(pattern, bucket)) {
+                    bucketCount.decrementAndGet();
+                }
+            });
+            if (patterns.isEmpty() && buckets.remove(logger, patterns)) {
+                // 检查和移除之间加入的调用点随旧的map一起丢弃, 与bucket()中的移除只有一方成功
+                patterns.forEach((pattern, bucket) -> {
+                    if (patterns.remove(pattern, bucket)) {
+                        bucketCount.decrementAndGet();
+                    }
+                });
+            }
+        });
+    }
+
+    int loggerCount() {
+        return buckets.size();
+    }
+
+    private ILoggingEvent summaryEvent(Bucket bucket, long suppressed) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName(SUMMARY_LOGGER);
+        event.setLevel(Level.WARN);
+        event.setThreadName(Thread.currentThread().getName());
+        event.setTimeStamp(System.currentTimeMillis());
+        event.setMDCPropertyMap(Collections.emptyMap());
+        event.setMessage("rate limited " + suppressed + " events in " + windowSeconds
+            + "s, logger: " + bucket.logger + ", message: " + bucket.pattern);
+        return event;
+    }
+
+    @Override
+    public void close() {
+        sneakyInvoke(() -> summarySchedule.cancel(false));
+        safeClose(summaryMissingCount);
+    }
+
+    private final class Bucket {
+        private final String logger;
+        private final String pattern;
+        // 下一条日志的理论到达时间
+        private final AtomicLong tat;
+        private final LongAdder suppressed = new LongAdder();
+
+        private Bucket(String logger, String pattern) {
+            this.logger = logger;
+            this.pattern = pattern;
+            this.tat = new AtomicLong(System.nanoTime() - burstNanos);
+        }
+
+        private boolean tryAcquire(long now) {
+            while (true) {
+                long current = tat.get();
+                long next = (current - now > 0 ? current : now) + intervalNanos;
+                if (next - now > burstNanos) {
+                    suppressed.increment();
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
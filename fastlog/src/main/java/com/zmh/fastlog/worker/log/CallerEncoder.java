@@ -0,0 +1,98 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.pattern.CallerDataConverter;
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.core.CoreConstants;
+import com.zmh.fastlog.utils.JsonByteBuilder;
+import com.zmh.fastlog.utils.StringAppender;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.zmh.fastlog.worker.log.MessageConverter.Consts.DATA_CALLER;
+import static java.util.Objects.isNull;
+
+/**
+ * 把调用位置写入json, 输出与 new CallerDataConverter().convert(event) 一致
+ * <p>
+ * 调用位置的取值范围就是代码中打印日志的位置, 数量有限且稳定,
+ * 按StackTraceElement(类、方法、文件、行号)缓存编码好的 "\t at 调用位置\n" 片段,
+ * 不需要每条日志都创建CallerDataConverter和拼接字符串
+ *
+ * @author zmh
+ */
+public class CallerEncoder {
+
+    // 与CallerDataConverter默认输出的层数一致
+    static final int CALLER_DEPTH = 5;
+
+    private static final String[] LINE_PREFIXES = new String[CALLER_DEPTH];
+
+    static {
+        for (int i = 0; i < CALLER_DEPTH; i++) {
+            LINE_PREFIXES[i] = CallerDataConverter.DEFAULT_CALLER_LINE_PREFIX + i;
+        }
+    }
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<StackTraceElement, byte[]> cache = new ConcurrentHashMap<>();
+
+    public CallerEncoder(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void write(JsonByteBuilder out, StackTraceElement[] callerData) {
+        out.key(DATA_CALLER);
+        if (isNull(callerData) || callerData.length == 0) {
+            out.value(CallerData.CALLER_DATA_NA);
+            return;
+        }
+        out.beginString(Integer.MAX_VALUE);
+        int limit = Math.min(CALLER_DEPTH, callerData.length);
+        for (int i = 0; i < limit; i++) {
+            out.appendString(LINE_PREFIXES[i]);
+            byte[] bytes = get(callerData[i]);
+            if (isNull(bytes)) {
+                out.appendString(toLine(callerData[i]));
+            } else {
+                out.raw(bytes);
+            }
+        }
+        out.endString();
+    }
+
+    /**
+     * 不使用缓存直接写入调用位置的文本, 供其他编码格式使用, 调用方负责beginString和endString
+     */
+    public static void append(StringAppender out, StackTraceElement[] callerData) {
+        if (isNull(callerData) || callerData.length == 0) {
+            out.appendString(CallerData.CALLER_DATA_NA);
+            return;
+        }
+        int limit = Math.min(CALLER_DEPTH, callerData.length);
+        for (int i = 0; i < limit; i++) {
+            out.appendString(LINE_PREFIXES[i])
+                .appendString(toLine(callerData[i]));
+        }
+    }
+
+    /**
+     * @return 编码好的片段, 缓存已满时返回null
+     */
+    private byte[] get(StackTraceElement ste) {
+        byte[] bytes = cache.get(ste);
+        if (isNull(bytes) && cache.size() < maxSize) {
+            bytes = JsonByteBuilder.encodeString(toLine(ste));
+            cache.putIfAbsent(ste, bytes);
+        }
+        return bytes;
+    }
+
+    private static String toLine(StackTraceElement ste) {
+        return "\t at " + ste + CoreConstants.LINE_SEPARATOR;
+    }
+
+    int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,269 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * 在业务线程中提取日志的调用位置, 替代logback的CallerData.extract
+ * <p>
+ * logback会通过 new Throwable().getStackTrace() 为整个调用栈创建StackTraceElement,
+ * 调用栈很深的web应用中每条日志要创建上百个对象, 而实际只需要调用位置附近的几层:
+ * 1、jdk8中通过JavaLangAccess按下标读取栈帧, 只为用到的栈帧创建StackTraceElement
+ * 2、jdk9+中通过StackWalker逐帧遍历, 同样只为用到的栈帧创建StackTraceElement
+ * 3、运行时都不支持时退回 getStackTrace()
+ * <p>
+ * 框架栈帧的判断与logback的CallerData.extract一致: 日志事件的fqnOfLoggerClass、反射栈帧、
+ * LoggerContext的frameworkPackages, 调用位置是最后一段框架栈帧之后的第一个栈帧
+ *
+ * @author zmh
+ */
+public class CallerLocator {
+
+    private static final String LOGGER_FQCN = Logger.class.getName();
+
+    private static final StackTraceElement[] EMPTY_CALLER_DATA = new StackTraceElement[0];
+
+    // (Throwable)int, 不支持时为null
+    private static final MethodHandle GET_STACK_TRACE_DEPTH;
+    // (Throwable, int)StackTraceElement, 不支持时为null
+    private static final MethodHandle GET_STACK_TRACE_ELEMENT;
+
+    // (Function)Object, 绑定了StackWalker实例, 不支持时为null
+    private static final MethodHandle STACK_WALK;
+    // (StackFrame)String
+    private static final MethodHandle FRAME_CLASS_NAME;
+    // (StackFrame)StackTraceElement
+    private static final MethodHandle FRAME_TO_ELEMENT;
+
+    // (LoggingEvent)String, LoggingEvent.fqnOfLoggerClass没有getter, 不支持时为null
+    private static final MethodHandle GET_FQN_OF_LOGGER_CLASS;
+
+    static {
+        MethodHandle depth = null;
+        MethodHandle element = null;
+        try {
+            Class<?> secrets = Class.forName("sun.misc.SharedSecrets");
+            Object access = secrets.getMethod("getJavaLangAccess").invoke(null);
+            Class<?> accessClass = Class.forName("sun.misc.JavaLangAccess");
+            Method depthMethod = accessClass.getMethod("getStackTraceDepth", Throwable.class);
+            Method elementMethod = accessClass.getMethod("getStackTraceElement", Throwable.class, int.class);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            depth = lookup.unreflect(depthMethod).bindTo(access);
+            element = lookup.unreflect(elementMethod).bindTo(access);
+            // 确认可以正常调用
+            Throwable throwable = new Throwable();
+            if ((int) depth.invoke(throwable) > 0) {
+                element.invoke(throwable, 0);
+            }
+        } catch (Throwable ignore) {
+            depth = null;
+            element = null;
+        }
+        GET_STACK_TRACE_DEPTH = depth;
+        GET_STACK_TRACE_ELEMENT = element;
+
+        MethodHandle walk = null;
+        MethodHandle className = null;
+        MethodHandle toElement = null;
+        if (isNull(depth)) {
+            try {
+                Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+                Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+                Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+                // 保留反射栈帧, 与getStackTrace()的结果一致
+                Object showReflectFrames = optionClass.getField("SHOW_REFLECT_FRAMES").get(null);
+                Object walker = walkerClass.getMethod("getInstance", optionClass).invoke(null, showReflectFrames);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                walk = lookup.unreflect(walkerClass.getMethod("walk", Function.class))
+                    .bindTo(walker)
+                    .asType(methodType(Object.class, Function.class));
+                className = lookup.unreflect(frameClass.getMethod("getClassName"))
+                    .asType(methodType(String.class, Object.class));
+                toElement = lookup.unreflect(frameClass.getMethod("toStackTraceElement"))
+                    .asType(methodType(StackTraceElement.class, Object.class));
+                // 确认可以正常调用
+                walkFrames(walk, className, toElement, LOGGER_FQCN, null, 1);
+            } catch (Throwable ignore) {
+                walk = null;
+                className = null;
+                toElement = null;
+            }
+        }
+        STACK_WALK = walk;
+        FRAME_CLASS_NAME = className;
+        FRAME_TO_ELEMENT = toElement;
+
+        MethodHandle fqn = null;
+        try {
+            Field field = LoggingEvent.class.getDeclaredField("fqnOfLoggerClass");
+            field.setAccessible(true);
+            fqn = MethodHandles.lookup().unreflectGetter(field)
+                .asType(methodType(String.class, LoggingEvent.class));
+        } catch (Throwable ignore) {
+            // 退回Logger的类名
+        }
+        GET_FQN_OF_LOGGER_CLASS = fqn;
+    }
+
+    private CallerLocator() {
+    }
+
+    /**
+     * 为还没有调用位置的日志提取调用位置, 需要在打印日志的业务线程中调用
+     */
+    public static void locate(ILoggingEvent event) {
+        locate(event, null);
+    }
+
+    /**
+     * 为还没有调用位置的日志提取调用位置, 需要在打印日志的业务线程中调用
+     *
+     * @param frameworkPackages LoggerContext.getFrameworkPackages(), 可以为null
+     */
+    public static void locate(ILoggingEvent event, List<String> frameworkPackages) {
+        if (event.hasCallerData()) {
+            return;
+        }
+        if (event instanceof LoggingEvent) {
+            LoggingEvent loggingEvent = (LoggingEvent) event;
+            String fqn = fqnOfLoggerClass(loggingEvent);
+            loggingEvent.setCallerData(extract(new Throwable(), fqn, frameworkPackages, CallerEncoder.CALLER_DEPTH));
+        } else {
+            event.getCallerData();
+        }
+    }
+
+    private static String fqnOfLoggerClass(LoggingEvent event) {
+        if (nonNull(GET_FQN_OF_LOGGER_CLASS)) {
+            try {
+                String fqn = (String) GET_FQN_OF_LOGGER_CLASS.invokeExact(event);
+                if (nonNull(fqn)) {
+                    return fqn;
+                }
+            } catch (Throwable ignore) {
+                // 退回Logger的类名
+            }
+        }
+        return LOGGER_FQCN;
+    }
+
+    static StackTraceElement[] extract(Throwable throwable, String fqn, List<String> frameworkPackages, int maxDepth) {
+        if (nonNull(GET_STACK_TRACE_DEPTH)) {
+            try {
+                return extractByAccess(throwable, fqn, frameworkPackages, maxDepth);
+            } catch (Throwable ignore) {
+                // 退回getStackTrace
+            }
+        }
+        if (nonNull(STACK_WALK)) {
+            try {
+                return walkFrames(STACK_WALK, FRAME_CLASS_NAME, FRAME_TO_ELEMENT, fqn, frameworkPackages, maxDepth);
+            } catch (Throwable ignore) {
+                // 退回getStackTrace
+            }
+        }
+        return extractByStackTrace(throwable.getStackTrace(), fqn, frameworkPackages, maxDepth);
+    }
+
+    private static StackTraceElement[] extractByAccess(Throwable throwable, String fqn, List<String> frameworkPackages, int maxDepth) throws Throwable {
+        int depth = (int) GET_STACK_TRACE_DEPTH.invokeExact(throwable);
+        int found = -1;
+        for (int i = 0; i < depth; i++) {
+            StackTraceElement ste = (StackTraceElement) GET_STACK_TRACE_ELEMENT.invokeExact(throwable, i);
+            if (isFramework(ste.getClassName(), fqn, frameworkPackages)) {
+                found = i + 1;
+            } else if (found != -1) {
+                break;
+            }
+        }
+        if (found == -1) {
+            return EMPTY_CALLER_DATA;
+        }
+        StackTraceElement[] callerData = new StackTraceElement[Math.min(maxDepth, depth - found)];
+        for (int i = 0; i < callerData.length; i++) {
+            callerData[i] = (StackTraceElement) GET_STACK_TRACE_ELEMENT.invokeExact(throwable, found + i);
+        }
+        return callerData;
+    }
+
+    private static StackTraceElement[] walkFrames(MethodHandle walk, MethodHandle className, MethodHandle toElement,
+                                                  String fqn, List<String> frameworkPackages, int maxDepth) throws Throwable {
+        Function<Stream<?>, StackTraceElement[]> walker = frames -> {
+            StackTraceElement[] callerData = new StackTraceElement[maxDepth];
+            int size = 0;
+            boolean found = false;
+            try {
+                Iterator<?> it = frames.iterator();
+                while (it.hasNext() && size < maxDepth) {
+                    Object frame = it.next();
+                    if (size == 0 && isFramework((String) className.invokeExact(frame), fqn, frameworkPackages)) {
+                        found = true;
+                    } else if (found) {
+                        callerData[size++] = (StackTraceElement) toElement.invokeExact(frame);
+                    }
+                }
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+            if (size == maxDepth) {
+                return callerData;
+            }
+            StackTraceElement[] result = new StackTraceElement[size];
+            System.arraycopy(callerData, 0, result, 0, size);
+            return result;
+        };
+        Object callerData = walk.invokeExact((Function) walker);
+        return (StackTraceElement[]) callerData;
+    }
+
+    private static StackTraceElement[] extractByStackTrace(StackTraceElement[] steArray, String fqn, List<String> frameworkPackages, int maxDepth) {
+        if (isNull(steArray)) {
+            return EMPTY_CALLER_DATA;
+        }
+        int found = -1;
+        for (int i = 0; i < steArray.length; i++) {
+            if (isFramework(steArray[i].getClassName(), fqn, frameworkPackages)) {
+                found = i + 1;
+            } else if (found != -1) {
+                break;
+            }
+        }
+        if (found == -1) {
+            return EMPTY_CALLER_DATA;
+        }
+        StackTraceElement[] callerData = new StackTraceElement[Math.min(maxDepth, steArray.length - found)];
+        System.arraycopy(steArray, found, callerData, 0, callerData.length);
+        return callerData;
+    }
+
+    private static boolean isFramework(String className, String fqn, List<String> frameworkPackages) {
+        if (className.equals(fqn)
+            || className.startsWith("java.lang.reflect.")
+            || className.startsWith("sun.reflect.")) {
+            return true;
+        }
+        if (nonNull(frameworkPackages)) {
+            for (String frameworkPackage : frameworkPackages) {
+                if (className.startsWith(frameworkPackage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
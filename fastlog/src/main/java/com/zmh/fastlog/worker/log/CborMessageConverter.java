@@ -0,0 +1,154 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.utils.BufferPool;
+import com.zmh.fastlog.utils.CborByteBuilder;
+
+import java.util.Map;
+
+import static com.zmh.fastlog.worker.log.CborMessageConverter.Keys.*;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 二进制编码, 内容与MessageConverter相同, 格式为CBOR:
+ * 1、固定字段的key使用Keys中的整数, MDC字段的key仍然是字符串
+ * 2、只保留毫秒时间戳ts, 不再输出格式化的@timestamp, 由消费端按需转换
+ * <p>
+ * 同样的日志比json少了引号、转义和key的字节, 缓冲区、磁盘缓存和mq的每个批次可以容纳更多日志
+ *
+ * @author zmh
+ */
+public class CborMessageConverter implements EventEncoder {
+
+    private final ThreadLocal<CborByteBuilder> threadLocal = new ThreadLocal<>();
+
+    //最大的日志长度，单位字节，大于这个长度截取
+    private final int maxMsgSize;
+
+    private final ThrowableEncoder throwableEncoder;
+
+    public CborMessageConverter(FastLogConfig config) {
+        this(config.getMaxMsgSize(), config.getThrowableDedupSeconds());
+    }
+
+    public CborMessageConverter(int maxMsgSize, int throwableDedupSeconds) {
+        this.maxMsgSize = maxMsgSize;
+        this.throwableEncoder = new ThrowableEncoder(SECONDS.toMillis(throwableDedupSeconds));
+    }
+
+    @Override
+    public void convertToByteData(ILoggingEvent log, ByteData byteData, long sequence) {
+        CborByteBuilder builder = getCborByteBuilder();
+
+        builder.clear()
+            .beginMap(byteData.getData())
+            .key(KEY_SEQ).value(sequence)
+            .key(KEY_MESSAGE);
+        writeMessage(builder, log);
+        builder
+            .key(KEY_LOGGER).value(log.getLoggerName())
+            .key(KEY_THREAD).value(log.getThreadName())
+            .key(KEY_LEVEL).value(log.getLevel().levelStr)
+            .key(KEY_TIME_MILLSECOND).value(log.getTimeStamp());
+
+        if (nonNull(log.getMarker())) {
+            builder
+                .key(KEY_MARKER)
+                .value(log.getMarker().toString());
+        }
+        if (log.hasCallerData()) {
+            builder.key(KEY_CALLER).beginString(Integer.MAX_VALUE);
+            CallerEncoder.append(builder, log.getCallerData());
+            builder.endString();
+        }
+        if (nonNull(log.getThrowableProxy())) {
+            writeThrowable(builder, log.getThrowableProxy(), log.getTimeStamp());
+        }
+        Map<String, String> mdc = log.getMDCPropertyMap();
+        if (mdc.size() > 0) {
+            mdc.forEach((k, v) -> builder.key(k).value(v));
+        }
+
+        builder.endMap();
+
+        // 有可能data发生了扩容
+        byteData.setData(builder.array());
+        byteData.setDataLength(builder.pos());
+    }
+
+    @Override
+    public void appendRepeat(ByteData byteData, long repeat, long firstTs, long lastTs) {
+        CborByteBuilder builder = getCborByteBuilder()
+            .reopenMap(byteData.getData(), byteData.getDataLength())
+            .key(KEY_REPEAT).value(repeat)
+            .key(KEY_FIRST_TS).value(firstTs)
+            .key(KEY_LAST_TS).value(lastTs)
+            .endMap();
+
+        byteData.setData(builder.array());
+        byteData.setDataLength(builder.pos());
+    }
+
+    private void writeMessage(CborByteBuilder builder, ILoggingEvent log) {
+        String pattern = log.getMessage();
+        Object[] args = log.getArgumentArray();
+        if (isNull(pattern) || isNull(args)) {
+            builder.value(log.getFormattedMessage(), maxMsgSize);
+            return;
+        }
+        builder.beginString(maxMsgSize);
+        MessageFormatEncoder.write(builder, pattern, args);
+        builder.endString();
+    }
+
+    private void writeThrowable(CborByteBuilder builder, IThrowableProxy tp, long timestamp) {
+        boolean duplicate = false;
+        if (throwableEncoder.isDedupEnabled()) {
+            long fingerprint = ThrowableEncoder.fingerprint(tp);
+            builder.key(KEY_THROWABLE_HASH).value(fingerprint);
+            duplicate = throwableEncoder.isDuplicate(fingerprint, timestamp);
+        }
+        builder.key(KEY_THROWABLE).beginString(Integer.MAX_VALUE);
+        ThrowableEncoder.append(builder, tp, duplicate);
+        builder.endString();
+    }
+
+    /**
+     * 从当前线程中获取，避免多线程并发问题
+     */
+    private CborByteBuilder getCborByteBuilder() {
+        CborByteBuilder builder = this.threadLocal.get();
+
+        if (isNull(builder)) {
+            builder = CborByteBuilder.create(BufferPool.getDefault());
+            threadLocal.set(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * 固定字段的key, 与MessageConverter.Consts中的字段一一对应, 只能追加不能修改
+     */
+    public static class Keys {
+        public static final int KEY_SEQ = 0;
+        public static final int KEY_MESSAGE = 1;
+        public static final int KEY_LOGGER = 2;
+        public static final int KEY_THREAD = 3;
+        public static final int KEY_LEVEL = 4;
+        public static final int KEY_TIME_MILLSECOND = 5;
+        public static final int KEY_MARKER = 6;
+        public static final int KEY_CALLER = 7;
+        public static final int KEY_THROWABLE = 8;
+        // 异常指纹, 64位整数, json中是16进制字符串
+        public static final int KEY_THROWABLE_HASH = 9;
+        // 连续重复日志合并后的条数和时间范围
+        public static final int KEY_REPEAT = 10;
+        public static final int KEY_FIRST_TS = 11;
+        public static final int KEY_LAST_TS = 12;
+    }
+}
@@ -0,0 +1,127 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import com.zmh.fastlog.model.message.ByteData;
+
+import java.util.Objects;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * 合并连续重复的日志, 对应配置项 coalesceMillis
+ * <p>
+ * 1、logger、级别、格式化后的消息和异常类型都相同的日志视为重复, 指纹由业务线程或编码线程计算,
+ * 消费线程先比较指纹, 指纹相同时再比较logger和格式化后的消息, 避免哈希冲突的不同日志被合并
+ * 2、一组重复日志的第一条照常发送, 窗口内之后的重复日志只计数, 并保留最后一条的数据
+ * 3、遇到不同的日志、窗口结束或者缓冲区空闲时, 发送保留的那一条, 并追加repeat、firstTs、lastTs字段,
+ * firstTs是这一组第一条日志的时间, lastTs是最后一条被合并日志的时间,
+ * 这样N条连续重复的日志最终只发送2条
+ * <p>
+ * 只在LogWorker的消费线程中使用, 不需要线程安全
+ *
+ * @author zmh
+ */
+class EventCoalescer {
+
+    private final long windowMillis;
+
+    // 当前这一组日志的指纹、logger、消息和第一条日志的时间
+    private long fingerprint;
+    private String loggerName;
+    private String message;
+    private long runStart;
+
+    // 被合并的日志条数和时间范围
+    private int repeat;
+    private long firstTs;
+    private long lastTs;
+
+    // 被合并的最后一条日志
+    private final ByteData held = new ByteData();
+
+    EventCoalescer(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return 日志的指纹, 不会返回0, 0表示没有计算指纹
+     */
+    static long fingerprint(ILoggingEvent event) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, Objects.hashCode(event.getLoggerName()));
+        hash = mix(hash, event.getLevel().levelInt);
+        String message = event.getFormattedMessage();
+        if (nonNull(message)) {
+            hash = mix(hash, message.hashCode());
+            hash = mix(hash, message.length());
+        }
+        IThrowableProxy tp = event.getThrowableProxy();
+        if (nonNull(tp)) {
+            hash = mix(hash, tp.getClassName().hashCode());
+            hash = mix(hash, Objects.hashCode(tp.getMessage()));
+        }
+        return 0 == hash ? 1 : hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * @param message  格式化后的消息
+     * @param byteData 已经编码的日志, 合并时数据被转移到内部, 调用方不再发送
+     * @return true 日志被合并; false 日志开始新的一组, 调用方需要先发送drain返回的日志, 再发送当前日志
+     */
+    boolean offer(long fingerprint, long timestamp, String loggerName, String message, ByteData byteData) {
+        if (0 != fingerprint && fingerprint == this.fingerprint && timestamp - runStart < windowMillis
+            && Objects.equals(loggerName, this.loggerName) && Objects.equals(message, this.message)) {
+            if (0 == repeat) {
+                // 第一条日志已经照常发送, 下一组开始时runStart会被覆盖
+                firstTs = runStart;
+            }
+            repeat++;
+            lastTs = timestamp;
+            hold(byteData);
+            return true;
+        }
+        this.fingerprint = fingerprint;
+        this.loggerName = loggerName;
+        this.message = message;
+        this.runStart = timestamp;
+        return false;
+    }
+
+    /**
+     * 保留最后一条被合并日志的数据, 堆内数组直接与槽位交换, 槽位拿到的是上一条被合并日志的数组
+     */
+    private void hold(ByteData byteData) {
+        if (byteData.isDirect()) {
+            int length = byteData.getDataLength();
+            if (held.capacity() < length) {
+                held.setData(new byte[length]);
+            }
+            byteData.copyTo(held.getData());
+            held.setDataLength(length);
+            byteData.releaseSlab();
+        } else {
+            byteData.switchData(held);
+        }
+    }
+
+    boolean hasPending() {
+        return repeat > 0;
+    }
+
+    /**
+     * @return 追加了合并信息的日志, 没有被合并的日志时返回null
+     */
+    ByteData drain(EventEncoder encoder) {
+        if (0 == repeat) {
+            return null;
+        }
+        encoder.appendRepeat(held, repeat, firstTs, lastTs);
+        repeat = 0;
+        return held;
+    }
+}
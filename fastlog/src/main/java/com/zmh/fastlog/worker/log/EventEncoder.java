@@ -0,0 +1,51 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+
+import static java.util.Objects.isNull;
+
+/**
+ * 日志序列化的扩展点, 把日志编码成字节写入ByteData, 编码后的字节经过缓冲区、磁盘缓存发送到mq,
+ * 由配置项 eventEncoder 选择:
+ * json: 默认, MessageConverter
+ * cbor: 二进制编码, CborMessageConverter
+ * 其他: 自定义实现的类名, 需要提供以FastLogConfig为参数的public构造方法
+ * <p>
+ * 实现需要线程安全, 可能被多个日志线程同时调用
+ *
+ * @author zmh
+ */
+public interface EventEncoder {
+
+    void convertToByteData(ILoggingEvent log, ByteData byteData, long sequence);
+
+    /**
+     * 在已经编码的日志末尾追加连续重复日志的合并信息, 由LogWorker的消费线程调用, 对应配置项 coalesceMillis
+     * 默认不追加, 自定义实现不支持时合并后的日志不带这三个字段
+     *
+     * @param repeat  被合并的日志条数
+     * @param firstTs 这一组重复日志中第一条(照常发送的那一条)日志的时间
+     * @param lastTs  最后一条被合并日志的时间
+     */
+    default void appendRepeat(ByteData byteData, long repeat, long firstTs, long lastTs) {
+    }
+
+    static EventEncoder create(FastLogConfig config) {
+        String name = config.getEventEncoder();
+        if (isNull(name) || name.isEmpty() || "json".equalsIgnoreCase(name)) {
+            return new MessageConverter(config);
+        }
+        if ("cbor".equalsIgnoreCase(name)) {
+            return new CborMessageConverter(config);
+        }
+        try {
+            return (EventEncoder) Class.forName(name)
+                .getConstructor(FastLogConfig.class)
+                .newInstance(config);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("invalid eventEncoder: " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.zmh.fastlog.utils.ScheduleUtils.schedule;
+import static com.zmh.fastlog.utils.Utils.sneakyInvoke;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * 业务线程本地的日志暂存区, 攒够一批之后批量写入日志缓冲区,
+ * 一批日志只需要申请一次sequencer, 唤醒一次消费者
+ * <p>
+ * 触发批量写入的条件:
+ * 1、暂存的日志数达到batchSize
+ * 2、暂存的第一条日志等待时间超过flushMicros, 后台定时任务会检查空闲线程的暂存区
+ * 3、日志级别不低于WARN, 重要日志不等待
+ * <p>
+ * 定时任务运行在共用的调度线程中, 只做不阻塞的写入: 暂存区正被业务线程使用或者日志缓冲区空间不足时跳过, 下次再检查
+ * 定时任务不是常驻的, 暂存区从空变为非空时才安排一次检查, 检查后仍有暂存的日志再安排下一次, 没有日志时不占用调度线程
+ *
+ * @author zmh
+ */
+public class EventStaging implements Closeable {
+
+    public interface BatchPublisher {
+        void publish(ILoggingEvent[] events, int size);
+    }
+
+    /**
+     * 定时任务中使用, 不能阻塞
+     */
+    public interface TryBatchPublisher {
+        /**
+         * @return false 缓冲区空间不足, 一条都没有写入
+         */
+        boolean tryPublish(ILoggingEvent[] events, int size);
+    }
+
+    private static class Batch {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ILoggingEvent[] events;
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        private int size;
+        private long firstNanos;
+
+        private Batch(int batchSize) {
+            this.events = new ILoggingEvent[batchSize];
+        }
+    }
+
+    private final int batchSize;
+    private final int flushMicros;
+    private final long flushNanos;
+    private final BatchPublisher publisher;
+    private final TryBatchPublisher tryPublisher;
+
+    private final ThreadLocal<Batch> threadLocal = new ThreadLocal<>();
+    // 所有线程的暂存区, 供定时任务检查超时未写入的日志
+    private final Queue<Batch> batches = new ConcurrentLinkedQueue<>();
+    // 是否已经安排了检查, 同一时间最多一个
+    private final AtomicBoolean flushArmed = new AtomicBoolean();
+    private volatile ScheduledFuture<?> flushSchedule;
+    private volatile boolean isClosed = false;
+
+    public EventStaging(int batchSize, int flushMicros, BatchPublisher publisher, TryBatchPublisher tryPublisher) {
+        this.batchSize = batchSize;
+        this.flushMicros = flushMicros;
+        this.flushNanos = MICROSECONDS.toNanos(flushMicros);
+        this.publisher = publisher;
+        this.tryPublisher = tryPublisher;
+    }
+
+    public void add(ILoggingEvent event) {
+        // 线程名和MDC是在第一次获取时才从当前线程取值的, 暂存前先固定下来, 避免由定时任务线程写入时取错
+        event.getThreadName();
+        event.getMDCPropertyMap();
+
+        Batch batch = getBatch();
+        batch.lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (0 == batch.size) {
+                batch.firstNanos = now;
+            }
+            batch.events[batch.size++] = event;
+            if (batch.size >= batchSize
+                || event.getLevel().isGreaterOrEqual(Level.WARN)
+                || now - batch.firstNanos >= flushNanos) {
+                flush(batch);
+            } else if (1 == batch.size) {
+                armFlush();
+            }
+        } finally {
+            batch.lock.unlock();
+        }
+    }
+
+    private Batch getBatch() {
+        Batch batch = threadLocal.get();
+        if (isNull(batch)) {
+            batch = new Batch(batchSize);
+            threadLocal.set(batch);
+            batches.add(batch);
+        }
+        return batch;
+    }
+
+    // 调用方需持有batch的锁
+    private void flush(Batch batch) {
+        int size = batch.size;
+        if (size > 0) {
+            publisher.publish(batch.events, size);
+            clear(batch);
+        }
+    }
+
+    private static void clear(Batch batch) {
+        Arrays.fill(batch.events, 0, batch.size, null);
+        batch.size = 0;
+    }
+
+    private void armFlush() {
+        if (!isClosed && flushArmed.compareAndSet(false, true)) {
+            flushSchedule = schedule(this::flushExpired, flushMicros, MICROSECONDS);
+        }
+    }
+
+    private void flushExpired() {
+        // 先解除, 检查期间从空变为非空的暂存区会重新安排
+        flushArmed.set(false);
+        boolean pending = false;
+        long now = System.nanoTime();
+        Iterator<Batch> iterator = batches.iterator();
+        while (iterator.hasNext()) {
+            Batch batch = iterator.next();
+            // 业务线程正在写入, 由业务线程自己负责, 写入后可能还有暂存的日志, 下次再检查
+            if (!batch.lock.tryLock()) {
+                pending = true;
+                continue;
+            }
+            try {
+                Thread owner = batch.owner.get();
+                boolean ownerDead = isNull(owner) || !owner.isAlive();
+                if ((ownerDead || now - batch.firstNanos >= flushNanos) && batch.size > 0) {
+                    if (!tryPublisher.tryPublish(batch.events, batch.size)) {
+                        // 缓冲区空间不足, 留到下次
+                        pending = true;
+                        continue;
+                    }
+                    clear(batch);
+                }
+                if (batch.size > 0) {
+                    pending = true;
+                }
+                if (ownerDead) {
+                    iterator.remove();
+                }
+            } finally {
+                batch.lock.unlock();
+            }
+        }
+        if (pending) {
+            armFlush();
+        }
+    }
+
+    /**
+     * 停止定时任务, 并写入所有线程暂存的日志
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        ScheduledFuture<?> flushSchedule = this.flushSchedule;
+        if (nonNull(flushSchedule)) {
+            sneakyInvoke(() -> flushSchedule.cancel(false));
+        }
+        for (Batch batch : batches) {
+            batch.lock.lock();
+            try {
+                flush(batch);
+            } finally {
+                batch.lock.unlock();
+            }
+        }
+        batches.clear();
+    }
+}
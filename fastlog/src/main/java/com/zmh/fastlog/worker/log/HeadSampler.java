@@ -0,0 +1,75 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * 按链路id做一致性的头部采样, 对应配置项 headSamplingRate
+ * <p>
+ * 1、是否保留只取决于MDC中headSamplingTraceKey的哈希值, 所有实例、所有服务对同一条链路的决定相同, 保留的链路是完整的
+ * 2、ERROR日志和没有链路id的日志总是保留
+ * 3、在序列化之前判断, 被丢弃的日志不再占用限流、调用位置和序列化的开销
+ *
+ * @author zmh
+ */
+public class HeadSampler {
+
+    // 哈希值取高53位, 与采样率换算后的阈值比较
+    private static final double HASH_RANGE = 1L << 53;
+
+    private final String traceKey;
+    private final long threshold;
+
+    /**
+     * @return 没有配置采样, 或者采样率大于等于1时返回null
+     */
+    public static HeadSampler create(FastLogConfig config) {
+        String traceKey = config.getHeadSamplingTraceKey();
+        if (config.getHeadSamplingRate() >= 1 || isNull(traceKey) || traceKey.trim().isEmpty()) {
+            return null;
+        }
+        return new HeadSampler(traceKey.trim(), config.getHeadSamplingRate());
+    }
+
+    HeadSampler(String traceKey, double rate) {
+        this.traceKey = traceKey;
+        this.threshold = (long) (Math.max(0, rate) * HASH_RANGE);
+    }
+
+    /**
+     * @return false 丢弃当前日志
+     */
+    public boolean isSampled(ILoggingEvent event) {
+        if (event.getLevel().isGreaterOrEqual(Level.ERROR)) {
+            return true;
+        }
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        String traceId = isNull(mdc) ? null : mdc.get(traceKey);
+        if (isNull(traceId)) {
+            return true;
+        }
+        return isSampled(traceId);
+    }
+
+    boolean isSampled(String traceId) {
+        return (hash(traceId) >>> 11) < threshold;
+    }
+
+    /**
+     * String.hashCode在所有JVM上一致, 再经过murmur3的finalizer打散, 使得相近的id也能均匀分布
+     */
+    static long hash(String traceId) {
+        long h = traceId.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
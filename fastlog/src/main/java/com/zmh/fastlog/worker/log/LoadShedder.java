@@ -0,0 +1,124 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+import static com.zmh.fastlog.utils.Utils.safeClose;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * 按日志级别逐级丢弃, 对应配置项 loadShedding, 格式为 级别:缓冲区占用比例, 多个用逗号分隔,
+ * 例如 DEBUG:0.5,INFO:0.7,WARN:0.9
+ * <p>
+ * 缓冲区占用达到某个级别的比例后, 该级别的日志在进入缓冲区之前直接丢弃,
+ * 低级别的比例不会高于更高级别, 没有配置的级别沿用比它高的级别中最小的比例, 都没有配置时不丢弃,
+ * 这样日志突增时DEBUG最先被丢弃, 然后是INFO, 最后才是WARN和ERROR, 缓冲区留给重要的日志
+ * <p>
+ * 每个级别单独统计丢弃数
+ *
+ * @author zmh
+ */
+public class LoadShedder implements Closeable {
+
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    // 各级别开始丢弃时缓冲区已占用的数量, Long.MAX_VALUE表示不丢弃
+    private final long[] thresholds = new long[LEVELS.length];
+
+    private final LogMissingCountAndPrint[] shedCounts = new LogMissingCountAndPrint[LEVELS.length];
+
+    /**
+     * @param capacity 缓冲区容量, 单位与shouldShed的used一致
+     * @return 配置为空时返回null
+     */
+    public static LoadShedder create(String config, long capacity) {
+        if (isNull(config) || config.trim().isEmpty()) {
+            return null;
+        }
+        return new LoadShedder(config, capacity);
+    }
+
+    LoadShedder(String config, long capacity) {
+        double[] ratios = new double[LEVELS.length];
+        Arrays.fill(ratios, Double.NaN);
+        for (String item : config.split(",")) {
+            String[] pair = item.trim().split(":");
+            int index = pair.length == 2 ? indexOf(Level.toLevel(pair[0].trim(), null)) : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("invalid loadShedding: " + config);
+            }
+            try {
+                ratios[index] = Double.parseDouble(pair[1].trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("invalid loadShedding: " + config, ex);
+            }
+        }
+        double ratio = Double.NaN;
+        for (int i = LEVELS.length - 1; i >= 0; i--) {
+            if (!Double.isNaN(ratios[i]) && (Double.isNaN(ratio) || ratios[i] < ratio)) {
+                ratio = ratios[i];
+            }
+            if (Double.isNaN(ratio)) {
+                thresholds[i] = Long.MAX_VALUE;
+            } else {
+                thresholds[i] = (long) (capacity * ratio);
+                shedCounts[i] = new LogMissingCountAndPrint("shed " + LEVELS[i] + " count");
+            }
+        }
+    }
+
+    private static int indexOf(Level level) {
+        if (isNull(level)) {
+            return -1;
+        }
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i] == level) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int levelIndex(Level level) {
+        switch (level.toInt()) {
+            case Level.TRACE_INT:
+                return 0;
+            case Level.DEBUG_INT:
+                return 1;
+            case Level.INFO_INT:
+                return 2;
+            case Level.WARN_INT:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * @param used 缓冲区已占用的数量
+     * @return true 丢弃当前日志, 已计入丢弃数
+     */
+    public boolean shouldShed(Level level, long used) {
+        int index = levelIndex(level);
+        if (used < thresholds[index]) {
+            return false;
+        }
+        shedCounts[index].increment();
+        return true;
+    }
+
+    public long getShedCount(Level level) {
+        LogMissingCountAndPrint count = shedCounts[levelIndex(level)];
+        return nonNull(count) ? count.getTotalMissingCount() : 0;
+    }
+
+    @Override
+    public void close() {
+        for (LogMissingCountAndPrint count : shedCounts) {
+            safeClose(count);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.zmh.fastlog.worker.log;
+
+import com.lmax.disruptor.Sequence;
+import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.utils.ParkingSignal;
+import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.mq.MqWorker;
+
+import java.util.concurrent.locks.LockSupport;
+
+import static com.zmh.fastlog.utils.Utils.debugLog;
+import static com.zmh.fastlog.utils.Utils.getNowTime;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * 日志在mq和本地文件缓冲区之间切换的依据和写入重试, LogWorker和ByteRingLogWorker共用,
+ * 除onConfirmed外只在消费线程中调用, fusedMqHandler时writeToFile在mqStage线程中调用
+ * <p>
+ * 当前的去向(directWriteToMq)和日志id仍由各个LogWorker自己维护
+ *
+ * @author zmh
+ */
+class LogRouter {
+
+    // mq写入失败时每次重试前最长的等待时间
+    private static final long MQ_RETRY_NANOS = MILLISECONDS.toNanos(5);
+
+    // 文件缓冲区写满时每次重试前的等待时间
+    private static final long FILE_RETRY_NANOS = MICROSECONDS.toNanos(100);
+
+    private final MqWorker mqWorker;
+    private final FileWorker fileWorker;
+
+    // mq缓冲区有空间时的通知
+    private final ParkingSignal mqCapacity = new ParkingSignal();
+
+    // mq已经确认发送的最大messageId, 由MqWorker的线程写入, 消费线程处理日志前读取, Sequence带填充, 不会与其他字段伪共享
+    private final Sequence confirmedSeq = new Sequence(-1);
+    // mq恢复后是否不等本地文件缓冲区发完就切换到mq, 见parallelDrain配置
+    private final boolean parallelDrain;
+    // 最近一次切换到本地文件缓冲区后, 第一条写入文件的日志id
+    private long firstFileMessageId;
+
+    // 日志堆积超过这个值后放弃等待
+    private final int highWaterLevelMq;
+    private final Backlog backlog;
+
+    private volatile boolean isClosed = false;
+
+    /**
+     * @param firstFileMessageId 初始时先通过file, 第一条日志的id
+     */
+    LogRouter(MqWorker mqWorker, FileWorker fileWorker, boolean parallelDrain, long firstFileMessageId,
+              int highWaterLevelMq, Backlog backlog) {
+        this.mqWorker = mqWorker;
+        this.fileWorker = fileWorker;
+        this.parallelDrain = parallelDrain;
+        this.firstFileMessageId = firstFileMessageId;
+        this.highWaterLevelMq = highWaterLevelMq;
+        this.backlog = backlog;
+        mqWorker.addCapacityListener(mqCapacity::signalAll);
+    }
+
+    void onConfirmed(long messageId) {
+        confirmedSeq.set(messageId);
+    }
+
+    /**
+     * 1、本地文件缓冲区已经发完了, 后续日志切换到mq
+     * 2、parallelDrain时, mq已经发出了切换之后写入文件的日志, 说明mq已经恢复, 后续日志切换到mq, 文件中剩余的日志由FileWorker同时补发
+     *
+     * @param lastMessageId 最后一条已经分配的日志id
+     * @return true 可以切换到mq
+     */
+    boolean canSwitchToMq(long lastMessageId) {
+        long confirmed = confirmedSeq.get();
+        if (confirmed == lastMessageId) {
+            debugLog("本地cache已经清空,切换到mq," + getNowTime());
+            return true;
+        }
+        if (parallelDrain && confirmed >= firstFileMessageId) {
+            debugLog("mq已经恢复,切换到mq,本地cache继续补发," + getNowTime());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param firstFileMessageId 切换之后第一条写入文件的日志id
+     */
+    void switchToFile(long firstFileMessageId) {
+        this.firstFileMessageId = firstFileMessageId;
+        debugLog("mq阻塞,切换到file cache," + getNowTime());
+    }
+
+    /**
+     * mq缓冲区满时等待mq腾出空间, 日志堆积达到高水位后放弃
+     *
+     * @param sequence 当前日志在缓冲区中的位置, 用于计算堆积
+     * @return false 需要切换到本地文件缓冲区
+     */
+    boolean sendToMq(ByteData byteData, long sequence) {
+        long capacityVersion = mqCapacity.version();
+        while (!mqWorker.enqueue(byteData)) {
+            if (isClosed || backlog.of(sequence) >= highWaterLevelMq) {
+                return false;
+            }
+            // 等待mq腾出空间, 有空间时立即被唤醒, 最多等待MQ_RETRY_NANOS后重新检查水位
+            mqCapacity.await(capacityVersion, MQ_RETRY_NANOS);
+            capacityVersion = mqCapacity.version();
+        }
+        return true;
+    }
+
+    /**
+     * 文件缓冲区写满时等待FileWorker写入磁盘, 日志堆积达到高水位后放弃当前日志, 给后面的日志腾出空间
+     *
+     * @return false 日志需要丢弃, 由调用方计入fileMissingCount
+     */
+    boolean writeToFile(ByteData byteData, long sequence) {
+        while (!fileWorker.enqueue(byteData)) {
+            if (isClosed || backlog.of(sequence) >= highWaterLevelMq) {
+                return false;
+            }
+            LockSupport.parkNanos(FILE_RETRY_NANOS);
+        }
+        return true;
+    }
+
+    void close() {
+        isClosed = true;
+    }
+
+    /**
+     * 当前日志之后还在缓冲区中堆积的日志量, 单位与highWaterLevelMq一致
+     */
+    @FunctionalInterface
+    interface Backlog {
+        long of(long sequence);
+    }
+}
@@ -2,31 +2,44 @@ package com.zmh.fastlog.worker.log;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import com.lmax.disruptor.BatchStartAware;
-import com.lmax.disruptor.LiteBlockingWaitStrategy;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.LifecycleAware;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceReportingEventHandler;
+import com.lmax.disruptor.TimeoutHandler;
+import com.lmax.disruptor.WorkHandler;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.EventHandlerGroup;
 import com.lmax.disruptor.dsl.ProducerType;
+import com.zmh.fastlog.config.FastLogConfig;
 import com.zmh.fastlog.model.event.EventSlot;
 import com.zmh.fastlog.model.message.ByteData;
 import com.zmh.fastlog.model.message.LastConfirmedSeq;
-import com.zmh.fastlog.utils.ThreadUtils;
+import com.zmh.fastlog.utils.BufferPool;
+import com.zmh.fastlog.utils.DirectSlab;
 import com.zmh.fastlog.worker.AbstractWorker;
+import com.zmh.fastlog.worker.ConfirmedSeqListener;
+import com.zmh.fastlog.worker.WaitStrategies;
 import com.zmh.fastlog.worker.file.FileWorker;
 import com.zmh.fastlog.worker.mq.MqWorker;
 import lombok.Getter;
 import lombok.val;
 
+import java.util.Arrays;
+
 import static com.zmh.fastlog.utils.ThreadUtils.namedDaemonThreadFactory;
 import static com.zmh.fastlog.utils.Utils.debugLog;
-import static com.zmh.fastlog.utils.Utils.getNowTime;
+import static com.zmh.fastlog.utils.Utils.safeClose;
 import static java.util.Objects.isNull;
-import static org.apache.commons.lang3.StringUtils.startsWithAny;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * @author zmh
  */
 public class LogWorker extends AbstractWorker<Object, EventSlot>
-    implements BatchStartAware {
+    implements BatchStartAware, TimeoutHandler, LifecycleAware, ConfirmedSeqListener {
 
     // 日志有两个可能方向, 一个往mq, 一个写本地文件缓存
     // 以下两个是高水位阈值, 日志堆积超过这个阈值后应该丢弃之前的日志,
@@ -43,44 +56,214 @@ public class LogWorker extends AbstractWorker<Object, EventSlot>
     private final RingBuffer<EventSlot> ringBuffer;
 
     // 统计丢弃的日志数
-    final LogMissingCountAndPrint logMissingCount = new LogMissingCountAndPrint("log missing count");
-    final LogMissingCountAndPrint fileMissingCount = new LogMissingCountAndPrint("file missing count");
+    // 多个分片时名称中带上分片序号
+    final LogMissingCountAndPrint logMissingCount;
+    final LogMissingCountAndPrint fileMissingCount;
 
     // 消息去向, 二选1
     // 初始时先通过file,file缓冲区为空的切到mq
     // mq堵塞的时候切到file缓存
+    // 只在消费线程中读写, 切换的依据由router判断
     private boolean directWriteToMq = false;
+    // fusedMqHandler时每次切换到mq加1, 标记在发往mq的槽位中, mqStage发送失败后同一批次的日志都改写本地文件
+    private long mqEpoch = 1;
+    // mq和本地文件缓冲区之间切换的依据和写入重试
+    private final LogRouter router;
     private final MqWorker mqWorker;
     private final FileWorker fileWorker;
 
+    // fusedMqHandler时, 日志缓冲区上直接发往mq的消费者, 排在当前消费者之后, 未配置时为空
+    private final MqStage mqStage;
+
     // 日志序列化类
-    private MessageConverter messageConverter;
+    private final EventEncoder messageConverter;
+
+    // 缓冲区满了之后的处理策略
+    private final OverflowHandler overflowHandler;
+
+    // 按logger名称过滤日志
+    private final LoggerRules loggerRules;
+
+    // 按缓冲区占用逐级丢弃低级别日志, 未配置时为空
+    private final LoadShedder loadShedder;
+
+    // 合并连续重复的日志, 未配置时为空
+    private final EventCoalescer coalescer;
+
+    // 分片缓冲区的最小值
+    private static final int MIN_SHARD_BUFFER_SIZE = 1024;
+
+    // 分片信息, 多个LogWorker分片时每个分片一个缓冲区和一个消费线程, 避免所有生产者竞争同一个sequencer
+    // 分片内的日志id和seq按 n * shardCount + shardIndex 生成, 保证全局唯一且可以反推出所属分片
+    private final int shardIndex;
+    private final int shardCount;
+
+    // 堆外数据块, 为空时日志数据存放在各个缓冲区的byte[]中
+    private final DirectSlab slab;
+    // 使用slab时, 先序列化到线程本地的缓冲, 再复制到slab中
+    private final ThreadLocal<ByteData> encodeBuffer = ThreadLocal.withInitial(ByteData::new);
+
+    // 业务线程写入缓冲区的逻辑, 没有编码线程池时在业务线程中直接序列化, 否则只放入日志对象
+    private final EventTranslatorOneArg<EventSlot, ILoggingEvent> translator;
+
+    // 业务线程本地的日志暂存区, 为空时每条日志单独写入缓冲区
+    private final EventStaging staging;
 
     private volatile boolean isClosed = false;
 
     public LogWorker(MqWorker mqWorker, FileWorker fileWorker, int batchSize, int maxMsgSize) {
-        this.messageConverter = new MessageConverter(maxMsgSize);
+        this(mqWorker, fileWorker, defaultConfig(batchSize, maxMsgSize));
+    }
+
+    public LogWorker(MqWorker mqWorker, FileWorker fileWorker, FastLogConfig config) {
+        this(mqWorker, fileWorker, config, 0, 1);
+    }
+
+    /**
+     * @param shardIndex 当前分片的序号
+     * @param shardCount 分片总数, 大于1时由StripedLogWorker负责注册到mqWorker
+     */
+    public LogWorker(MqWorker mqWorker, FileWorker fileWorker, FastLogConfig config, int shardIndex, int shardCount) {
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.lastMessageId = shardIndex;
+        String shardSuffix = shardCount > 1 ? "[shard-" + shardIndex + "]" : "";
+        this.logMissingCount = new LogMissingCountAndPrint("log missing count" + shardSuffix);
+        this.fileMissingCount = new LogMissingCountAndPrint("file missing count" + shardSuffix);
+        this.messageConverter = EventEncoder.create(config);
         this.mqWorker = mqWorker;
         this.fileWorker = fileWorker;
+        this.overflowHandler = new OverflowHandler(config, () -> isClosed);
         // 缓冲区设置
         // 初始的缓冲池, 避免短期内日志突然增多造成日志来不及处理而丢失
         // 本实例是日志的入口, 尽量通过缓冲区把各个线程的日志的平缓的收集过来
-        int bufferSize = batchSize << 5;
+        // 多个分片时总的缓冲区大小不变, 平均分给每个分片
+        int bufferSize = config.getBatchMessageSize() << 5;
+        if (shardCount > 1) {
+            bufferSize = Math.max(Integer.highestOneBit(bufferSize / shardCount), MIN_SHARD_BUFFER_SIZE);
+        }
+        this.slab = createSlab(config, shardCount);
         this.highWaterLevelFile = (int) (bufferSize * 0.9);
         this.highWaterLevelMq = (int) (bufferSize * 0.8);
+        this.loadShedder = LoadShedder.create(config.getLoadShedding(), bufferSize);
+        this.loggerRules = new LoggerRules(config);
+        // 合并后的日志不在槽位中, 无法经过mqStage按顺序发送, fusedMqHandler时不合并
+        int coalesceMillis = config.isFusedMqHandler() ? 0 : config.getCoalesceMillis();
+        this.coalescer = coalesceMillis > 0 ? new EventCoalescer(coalesceMillis) : null;
+        this.mqStage = config.isFusedMqHandler() ? new MqStage(config.getBatchMessageSize()) : null;
 
         queue = new Disruptor<>(
             EventSlot::new,
             bufferSize,
-            namedDaemonThreadFactory("log-log-worker"),
+            namedDaemonThreadFactory(shardCount > 1 ? "log-log-worker-" + shardIndex : "log-log-worker"),
             ProducerType.MULTI, // 注意此处为多生产者
-            new LiteBlockingWaitStrategy()
+            // 合并重复日志时, 缓冲区空闲一个窗口后发送保留的日志
+            WaitStrategies.create(config.getLogWaitStrategy(), nonNull(coalescer) ? coalesceMillis : 0, MILLISECONDS)
         );
-        queue.handleEventsWith(this);
+        // 配置了编码线程池时, 先由线程池并行序列化, 再由当前消费者决定发往mq还是本地文件
+        int encoderThreads = config.getEncoderThreads();
+        EventHandlerGroup<EventSlot> handlers;
+        if (encoderThreads > 0) {
+            @SuppressWarnings("unchecked")
+            WorkHandler<EventSlot>[] encoders = new WorkHandler[encoderThreads];
+            Arrays.fill(encoders, (WorkHandler<EventSlot>) this::encode);
+            handlers = queue.handleEventsWithWorkerPool(encoders).then(this);
+            translator = this::capture;
+        } else {
+            handlers = queue.handleEventsWith(this);
+            translator = (event, sequence, msg) -> {
+                convert(msg, event.getByteData(), toSeq(sequence));
+                markFingerprint(event, msg);
+            };
+        }
+        // 当前消费者只分配日志id并决定去向, 日志留在槽位中, 由mqStage在同一个缓冲区上按顺序发往mq或者本地文件,
+        // 少一次缓冲区之间的数据交换和线程切换, 缓冲区的槽位在mqStage处理之后才能复用
+        if (nonNull(mqStage)) {
+            handlers.then(mqStage);
+        }
         ringBuffer = queue.getRingBuffer();
+        // 初始时先通过file
+        this.router = new LogRouter(mqWorker, fileWorker, config.isParallelDrain(), shardIndex + shardCount,
+            highWaterLevelMq, sequence -> ringBuffer.getCursor() - sequence);
         queue.start();
 
-        mqWorker.registerLogWorker(this);
+        int stagingBatchSize = Math.min(config.getStagingBatchSize(), bufferSize);
+        if (stagingBatchSize > 1) {
+            staging = new EventStaging(stagingBatchSize, config.getStagingFlushMicros(), this::publishBatch,
+                (events, size) -> ringBuffer.tryPublishEvents(translator, 0, size, events));
+        } else {
+            staging = null;
+        }
+
+        if (shardCount == 1) {
+            mqWorker.registerLogWorker(this);
+        }
+    }
+
+    /**
+     * 多个分片时slab的总大小不变, 平均分给每个分片
+     */
+    private static DirectSlab createSlab(FastLogConfig config, int shardCount) {
+        long slabBytes = ((long) config.getOffHeapSlabSize() << 20) / shardCount;
+        int blockSize = config.getOffHeapSlabBlockSize();
+        if (slabBytes <= 0 || blockSize <= 0 || slabBytes < blockSize) {
+            return null;
+        }
+        return new DirectSlab(blockSize, (int) Math.min(slabBytes / blockSize, Integer.MAX_VALUE / blockSize));
+    }
+
+    private void convert(ILoggingEvent msg, ByteData byteData, long seq) {
+        if (isNull(slab)) {
+            messageConverter.convertToByteData(msg, byteData, seq);
+            return;
+        }
+        ByteData buffer = encodeBuffer.get();
+        messageConverter.convertToByteData(msg, buffer, seq);
+        byteData.store(buffer, slab);
+    }
+
+    private void markFingerprint(EventSlot event, ILoggingEvent msg) {
+        if (nonNull(coalescer)) {
+            event.setFingerprint(EventCoalescer.fingerprint(msg), msg.getTimeStamp(), msg.getLoggerName(), msg.getFormattedMessage());
+        }
+    }
+
+    private long toSeq(long sequence) {
+        return sequence * shardCount + shardIndex;
+    }
+
+    /**
+     * 业务线程只放入日志对象, 不做序列化
+     */
+    private void capture(EventSlot event, long sequence, ILoggingEvent msg) {
+        // 线程名和MDC是在第一次获取时才从当前线程取值的, 交给编码线程前先固定下来
+        msg.getThreadName();
+        msg.getMDCPropertyMap();
+        event.setEvent(msg, toSeq(sequence));
+    }
+
+    /**
+     * 编码线程池的处理逻辑, 多个编码线程并行执行, 每条日志只会被其中一个线程处理
+     */
+    private void encode(EventSlot event) {
+        ByteData byteData = event.getByteData();
+        try {
+            convert(event.getEvent(), byteData, event.getSeq());
+            markFingerprint(event, event.getEvent());
+        } catch (Throwable ex) {
+            // 不能让异常终止编码线程, 序列化失败的日志在dequeue中丢弃
+            byteData.setDataLength(0);
+            debugLog("日志序列化失败," + ex);
+        } finally {
+            event.setEvent(null, 0);
+        }
+    }
+
+    private static FastLogConfig defaultConfig(int batchSize, int maxMsgSize) {
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(batchSize);
+        config.setMaxMsgSize(maxMsgSize);
+        return config;
     }
 
     /**
@@ -89,7 +272,6 @@ public class LogWorker extends AbstractWorker<Object, EventSlot>
      * @param message 入参有两种类型，1、正常日志 ILoggingEvent  2、mq发过来的已消费序号 LastSeq
      * @return true 日志发送成功 false 日志发送失败
      */
-    @SuppressWarnings("CodeBlock2Expr")
     @Override
     public boolean enqueue(Object message) {
         if (message instanceof ILoggingEvent) {
@@ -97,81 +279,264 @@ public class LogWorker extends AbstractWorker<Object, EventSlot>
             if (isExclude(msg)) {
                 return true;
             }
-            ringBuffer.publishEvent((event, sequence) -> {
-                messageConverter.convertToByteData(msg, event.getByteData(), sequence);
-            });
-        } else if (message instanceof LastConfirmedSeq) {
-            long lastSeq = ((LastConfirmedSeq) message).getSeq();
-            // 本地文件缓冲区已经发完了, 后续日志切换到mq
-            if (lastSeq == lastMessageId && !directWriteToMq) {
-                directWriteToMq = true;
-                debugLog("本地cache已经清空,切换到mq," + getNowTime());
+            if (nonNull(loadShedder)
+                && loadShedder.shouldShed(msg.getLevel(), ringBuffer.getBufferSize() - ringBuffer.remainingCapacity())) {
+                return false;
+            }
+            if (nonNull(staging)) {
+                staging.add(msg);
+                return true;
             }
+            return publish(msg);
+        } else if (message instanceof LastConfirmedSeq) {
+            onConfirmed(((LastConfirmedSeq) message).getSeq());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 不经过暂存区, 也不按overflowPolicy等待, 缓冲区满时计入logMissingCount
+     */
+    @Override
+    public boolean tryEnqueue(Object message) {
+        if (!(message instanceof ILoggingEvent)) {
+            return enqueue(message);
+        }
+        val msg = (ILoggingEvent) message;
+        if (isExclude(msg)) {
+            return true;
+        }
+        if (ringBuffer.tryPublishEvent(translator, msg)) {
+            return true;
+        }
+        logMissingCount.increment();
+        return false;
+    }
+
+    @Override
+    public void onConfirmed(long messageId) {
+        router.onConfirmed(messageId);
+    }
+
+    // 消费线程中执行
+    private void checkConfirmed() {
+        if (!directWriteToMq && router.canSwitchToMq(lastMessageId)) {
+            directWriteToMq = true;
+            mqEpoch++;
+        }
+    }
+
+    private void switchToFile() {
+        directWriteToMq = false;
+        router.switchToFile(lastMessageId + shardCount);
+    }
+
+    /**
+     * 写入日志缓冲区，缓冲区满时按overflowPolicy处理，被丢弃的日志计入logMissingCount
+     */
+    private boolean publish(ILoggingEvent msg) {
+        if (ringBuffer.tryPublishEvent(translator, msg)
+            || overflowHandler.retry(msg.getLevel(), () -> ringBuffer.tryPublishEvent(translator, msg))) {
             return true;
         }
+        logMissingCount.increment();
         return false;
     }
 
-    // 日志id, 发送成功一条加1, 用于识别每条日志，方便后续切换mq使用
-    private long lastMessageId = 0;
+    /**
+     * 批量写入暂存区的日志, 缓冲区空间不足时退化为逐条写入, 按overflowPolicy处理
+     */
+    private void publishBatch(ILoggingEvent[] events, int size) {
+        if (ringBuffer.tryPublishEvents(translator, 0, size, events)) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            publish(events[i]);
+        }
+    }
+
+    // 日志id, 发送成功一条加shardCount, 用于识别每条日志，方便后续切换mq使用
+    private long lastMessageId;
 
     // ringbuffer的消费者逻辑，这里已经是单线程了，lastMessageId没有并发问题
     @Override
     public void dequeue(EventSlot event, long sequence, boolean endOfBatch) {
-        long messageId = lastMessageId + 1;
-
+        checkConfirmed();
         ByteData byteData = event.getByteData();
-        byteData.setId(messageId);
+        if (0 == byteData.getDataLength()) {
+            // 编码线程序列化失败
+            logMissingCount.increment();
+            byteData.releaseSlab();
+            event.clear();
+            notifySeq(sequence);
+            return;
+        }
+        // 日志大小的分布决定缓冲池各级别保留的缓冲数量
+        BufferPool.getDefault().record(byteData.getDataLength());
 
-        if (directWriteToMq) {
-            boolean success;
-            while (!(success = mqWorker.enqueue(byteData))) {
-                if (isClosed) {
-                    break;
-                }
-                if (ringBuffer.getCursor() - sequence >= highWaterLevelMq) {
-                    break;
-                }
-                ThreadUtils.sleep(5);
-            }
-            // 写入失败, 切换到本地文件缓冲区
-            if (!success && directWriteToMq) {
-                directWriteToMq = false;
-                debugLog("mq阻塞,切换到file cache," + getNowTime());
+        if (nonNull(coalescer)) {
+            if (coalescer.offer(event.getFingerprint(), event.getTimeStamp(), event.getLoggerName(), event.getMessage(), byteData)) {
+                // 重复的日志已经转移到coalescer中
+                event.clear();
+                notifySeq(sequence);
+                return;
             }
+            // 新的一组日志, 先发送上一组合并后的日志, 保证顺序
+            flushCoalesced(sequence);
         }
 
-        if (!directWriteToMq) {
-            fileWorker.enqueue(byteData);
+        if (nonNull(mqStage)) {
+            // 数据留在槽位中, 由mqStage发送并清理
+            stage(event);
+            notifySeq(sequence);
+            return;
         }
 
-        lastMessageId = messageId;
+        send(byteData, sequence);
 
         // clear必须在notify之前，否则notify之后，新的数据可能立马放入event中，后执行clear可能会把新的数据给clear掉
         event.clear();
         notifySeq(sequence);
     }
 
-    private boolean isExclude(ILoggingEvent message) {
+    /**
+     * 发往mq或者本地文件缓冲区, 并分配日志id
+     */
+    private void send(ByteData byteData, long sequence) {
+        long messageId = lastMessageId + shardCount;
+        byteData.setId(messageId);
+
+        // 写入失败, 切换到本地文件缓冲区
+        if (directWriteToMq && !router.sendToMq(byteData, sequence)) {
+            switchToFile();
+        }
+
+        if (!directWriteToMq && !router.writeToFile(byteData, sequence)) {
+            fileMissingCount.increment();
+            byteData.releaseSlab();
+        }
+
+        lastMessageId = messageId;
+    }
+
+    /**
+     * fusedMqHandler时代替send, 只分配日志id并在槽位中标记去向, 发往mq和本地文件的日志都由mqStage按顺序处理,
+     * mqStage发送失败时切换到本地文件缓冲区, 与写入MqWorker缓冲区失败时的切换一致
+     */
+    private void stage(EventSlot event) {
+        if (directWriteToMq && mqStage.failedEpoch >= mqEpoch) {
+            switchToFile();
+        }
+        long messageId = lastMessageId + shardCount;
+        event.getByteData().setId(messageId);
+        event.setStaged(directWriteToMq ? mqEpoch : 0);
+        lastMessageId = messageId;
+    }
+
+    private void flushCoalesced(long sequence) {
+        ByteData coalesced = coalescer.drain(messageConverter);
+        if (nonNull(coalesced)) {
+            send(coalesced, sequence);
+        }
+    }
+
+    /**
+     * 缓冲区空闲了一个合并窗口, 发送保留的日志, 避免最后一组重复日志一直得不到发送
+     */
+    @Override
+    public void onTimeout(long sequence) {
+        checkConfirmed();
+        if (nonNull(coalescer) && coalescer.hasPending()) {
+            flushCoalesced(sequence);
+        }
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    /**
+     * 消费线程退出前发送保留的日志
+     */
+    @Override
+    public void onShutdown() {
+        onTimeout(ringBuffer.getCursor());
+    }
+
+    boolean isExclude(ILoggingEvent message) {
         if (isNull(message)) {
             return true;
         }
-        return startsWithAny(
-            message.getLoggerName(),
-            "ch.qos.logback",
-            "org.apache.pulsar",
-            "org.apache.kafka"
-        );
+        return loggerRules.isExclude(message.getLoggerName(), message.getLevel());
     }
 
     @Override
     public void close() {
+        safeClose(staging);
+        safeClose(loadShedder);
         logMissingCount.close();
         fileMissingCount.close();
         isClosed = true;
+        router.close();
         queue.shutdown();
     }
 
+    /**
+     * 日志缓冲区上的mq消费者, 在LogWorker之后按顺序处理同一个槽位, 只处理stage标记过的日志
+     * 发往mq时不等待, mq未就绪或者发送会阻塞时当前日志和同一批次后面的日志都改写本地文件,
+     * 再由LogWorker切换到本地文件缓冲区, mq故障时不会堵住日志缓冲区和业务线程
+     */
+    private final class MqStage implements SequenceReportingEventHandler<EventSlot> {
+        private final int batchSize;
+        private int batchIndex;
+        private Sequence sequenceCallback;
+
+        // 发送失败的mqEpoch, 由mqStage写入, LogWorker据此切换到本地文件缓冲区
+        private volatile long failedEpoch;
+
+        private MqStage(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void setSequenceCallback(Sequence sequenceCallback) {
+            this.sequenceCallback = sequenceCallback;
+        }
+
+        @Override
+        public void onEvent(EventSlot event, long sequence, boolean endOfBatch) {
+            if (event.isStaged()) {
+                long epoch = event.getMqEpoch();
+                event.clearStaged();
+                if (epoch > failedEpoch && !mqWorker.sendDirect(event)) {
+                    // mq未就绪、发送会阻塞或者MqWorker已经关闭, 同一批次后面的日志不再尝试发往mq, 保证顺序
+                    failedEpoch = epoch;
+                }
+                if (epoch > failedEpoch) {
+                    batchIndex++;
+                } else {
+                    writeToFile(event, sequence);
+                }
+            }
+            if (batchIndex > 0 && (batchIndex >= batchSize || endOfBatch)) {
+                mqWorker.flushDirect();
+                // 提前释放已经发送的槽位
+                sequenceCallback.set(sequence);
+                batchIndex = 0;
+            }
+        }
+
+        private void writeToFile(EventSlot event, long sequence) {
+            ByteData byteData = event.getByteData();
+            if (!router.writeToFile(byteData, sequence)) {
+                fileMissingCount.increment();
+                byteData.releaseSlab();
+            }
+            event.clear();
+        }
+    }
+
     private long nextNotifySeq = 0;
 
     @Override
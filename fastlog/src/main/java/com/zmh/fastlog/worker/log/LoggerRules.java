@@ -0,0 +1,153 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import com.zmh.fastlog.config.FastLogConfig;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * 按logger名称前缀过滤日志, 对应配置项 includeLoggers、excludeLoggers 和 loggerLevels
+ * <p>
+ * 1、启动时把所有前缀编译成一棵前缀树, 按logger名称逐个字符匹配, 最长的前缀生效
+ * 2、配置了includeLoggers时, 不匹配任何include前缀的logger全部排除
+ * 3、loggerLevels按前缀配置最低级别, 低于这个级别的日志排除
+ * 4、ch.qos.logback、org.apache.pulsar、org.apache.kafka 始终排除, 避免日志组件自身的日志循环发送
+ * <p>
+ * 每个logger名称的匹配结果(最低级别)缓存在ConcurrentHashMap中, 预热之后每条日志只需要一次map查找,
+ * 与规则数量无关
+ * <p>
+ * 规则跟随使用它的appender和LogWorker实例, 不同LoggerContext中的fastlog互不影响
+ *
+ * @author zmh
+ */
+public class LoggerRules {
+
+    private static final String[] BUILT_IN_EXCLUDES = {"ch.qos.logback", "org.apache.pulsar", "org.apache.kafka"};
+
+    // 缓存的logger数量上限, 超过后不再缓存, 直接在前缀树中匹配
+    private static final int MAX_CACHE_SIZE = 10000;
+
+    // 排除时的最低级别, 任何日志都不满足
+    private static final int EXCLUDED = Integer.MAX_VALUE;
+    private static final int ACCEPT_ALL = Integer.MIN_VALUE;
+
+    private final Node root = new Node();
+    private final boolean hasIncludes;
+
+    private final ConcurrentHashMap<String, Integer> cache = new ConcurrentHashMap<>();
+
+    public LoggerRules(FastLogConfig config) {
+        this(config.getIncludeLoggers(), config.getExcludeLoggers(), config.getLoggerLevels());
+    }
+
+    /**
+     * @param includes 逗号分隔的前缀
+     * @param excludes 逗号分隔的前缀
+     * @param levels   逗号分隔的 前缀:级别
+     */
+    public LoggerRules(String includes, String excludes, String levels) {
+        for (String prefix : BUILT_IN_EXCLUDES) {
+            node(prefix).forced = true;
+        }
+        boolean hasIncludes = false;
+        for (String prefix : split(includes)) {
+            node(prefix).rule = Rule.INCLUDE;
+            hasIncludes = true;
+        }
+        this.hasIncludes = hasIncludes;
+        for (String prefix : split(excludes)) {
+            node(prefix).rule = Rule.EXCLUDE;
+        }
+        for (String item : split(levels)) {
+            int index = item.lastIndexOf(':');
+            Level level = index > 0 ? Level.toLevel(item.substring(index + 1).trim(), null) : null;
+            if (isNull(level)) {
+                throw new IllegalArgumentException("invalid loggerLevels: " + levels);
+            }
+            node(item.substring(0, index).trim()).level = level.toInt();
+        }
+    }
+
+    private static String[] split(String config) {
+        if (isNull(config)) {
+            return new String[0];
+        }
+        return Arrays.stream(config.split(","))
+            .map(String::trim)
+            .filter(item -> !item.isEmpty())
+            .toArray(String[]::new);
+    }
+
+    private Node node(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+        }
+        return node;
+    }
+
+    /**
+     * @return true 排除当前日志
+     */
+    public boolean isExclude(String loggerName, Level level) {
+        if (isNull(loggerName)) {
+            return true;
+        }
+        return level.toInt() < threshold(loggerName);
+    }
+
+    /**
+     * @return logger的最低级别, 排除时为Integer.MAX_VALUE
+     */
+    int threshold(String loggerName) {
+        Integer threshold = cache.get(loggerName);
+        if (nonNull(threshold)) {
+            return threshold;
+        }
+        int matched = match(loggerName);
+        if (cache.size() < MAX_CACHE_SIZE) {
+            cache.putIfAbsent(loggerName, matched);
+        }
+        return matched;
+    }
+
+    private int match(String loggerName) {
+        Rule rule = hasIncludes ? Rule.EXCLUDE : Rule.INCLUDE;
+        int level = ACCEPT_ALL;
+        Node node = root;
+        for (int i = 0; i < loggerName.length(); i++) {
+            node = node.children.get(loggerName.charAt(i));
+            if (isNull(node)) {
+                break;
+            }
+            if (node.forced) {
+                return EXCLUDED;
+            }
+            if (nonNull(node.rule)) {
+                rule = node.rule;
+            }
+            if (node.level != ACCEPT_ALL) {
+                level = node.level;
+            }
+        }
+        return rule == Rule.EXCLUDE ? EXCLUDED : level;
+    }
+
+    private enum Rule {
+        INCLUDE, EXCLUDE
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        // 始终排除, 优先于其他规则
+        private boolean forced;
+        private Rule rule;
+        private int level = ACCEPT_ALL;
+    }
+}
@@ -1,46 +1,69 @@
 package com.zmh.fastlog.worker.log;
 
-import ch.qos.logback.classic.pattern.CallerDataConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import com.zmh.fastlog.config.FastLogConfig;
 import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.utils.BufferPool;
 import com.zmh.fastlog.utils.JsonByteBuilder;
+import com.zmh.fastlog.utils.JsonFieldCache;
 
-import java.util.Calendar;
 import java.util.Map;
 
 import static com.zmh.fastlog.worker.log.MessageConverter.Consts.*;
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
-public class MessageConverter {
+/**
+ * 默认的json编码
+ */
+public class MessageConverter implements EventEncoder {
 
     private final ThreadLocal<JsonByteBuilder> threadLocal = new ThreadLocal<>();
 
-    private final Calendar calendar = new Calendar.Builder().build();
-
     //最大的日志长度，单位字节，大于这个长度截取
     private final int maxMsgSize;
 
+    // logger、thread、level的取值范围小且稳定, 缓存编码好的json片段
+    private final JsonFieldCache loggerFields = new JsonFieldCache(DATA_LOGGER, 4096);
+    private final JsonFieldCache threadFields = new JsonFieldCache(DATA_THREAD, 4096);
+    private final JsonFieldCache levelFields = new JsonFieldCache(DATA_LEVEL, 16);
+
+    // 调用位置同样取值范围有限, 按栈帧缓存编码好的片段
+    private final CallerEncoder callerEncoder = new CallerEncoder(4096);
+
+    private final ThrowableEncoder throwableEncoder;
+
+    public MessageConverter(FastLogConfig config) {
+        this(config.getMaxMsgSize(), config.getThrowableDedupSeconds());
+    }
+
     public MessageConverter(int maxMsgSize) {
+        this(maxMsgSize, 0);
+    }
+
+    public MessageConverter(int maxMsgSize, int throwableDedupSeconds) {
         this.maxMsgSize = maxMsgSize;
+        this.throwableEncoder = new ThrowableEncoder(SECONDS.toMillis(throwableDedupSeconds));
     }
 
+    @Override
     public void convertToByteData(ILoggingEvent log, ByteData byteData, long sequence) {
         JsonByteBuilder jsonByteBuilder = getJsonByteBuilder();
 
         jsonByteBuilder.clear()
             .beginObject(byteData.getData())
             .key(DATA_SEQ).value(sequence)
-            .key(DATA_MESSAGE).value(log.getFormattedMessage(), maxMsgSize)
-            .key(DATA_LOGGER).value(log.getLoggerName())
-            .key(DATA_THREAD).value(log.getThreadName())
-            .key(DATA_LEVEL).value(log.getLevel().levelStr);
+            .key(DATA_MESSAGE);
+        writeMessage(jsonByteBuilder, log);
+        jsonByteBuilder
+            .field(loggerFields, log.getLoggerName())
+            .field(threadFields, log.getThreadName())
+            .field(levelFields, log.getLevel().levelStr);
 
         long timeStamp = log.getTimeStamp();
-        calendar.setTimeInMillis(timeStamp);
         jsonByteBuilder
-            .key(DATA_TIMESTAMP).value(calendar)
+            .key(DATA_TIMESTAMP).timestamp(timeStamp)
             .key(DATA_TIME_MILLSECOND).value(timeStamp);
 
         if (nonNull(log.getMarker())) {
@@ -49,14 +72,10 @@ public class MessageConverter {
                 .value(log.getMarker().toString());
         }
         if (log.hasCallerData()) {
-            jsonByteBuilder
-                .key(DATA_CALLER)
-                .value(new CallerDataConverter().convert(log));
+            callerEncoder.write(jsonByteBuilder, log.getCallerData());
         }
         if (nonNull(log.getThrowableProxy())) {
-            jsonByteBuilder
-                .key(DATA_THROWABLE)
-                .value(ThrowableProxyUtil.asString(log.getThrowableProxy()));
+            throwableEncoder.write(jsonByteBuilder, log.getThrowableProxy(), timeStamp);
         }
         Map<String, String> mdc = log.getMDCPropertyMap();
         if (mdc.size() > 0) {
@@ -70,6 +89,34 @@ public class MessageConverter {
         byteData.setDataLength(jsonByteBuilder.pos());
     }
 
+    @Override
+    public void appendRepeat(ByteData byteData, long repeat, long firstTs, long lastTs) {
+        JsonByteBuilder jsonByteBuilder = getJsonByteBuilder()
+            .reopenObject(byteData.getData(), byteData.getDataLength())
+            .key(DATA_REPEAT).value(repeat)
+            .key(DATA_FIRST_TS).value(firstTs)
+            .key(DATA_LAST_TS).value(lastTs)
+            .endObject();
+
+        byteData.setData(jsonByteBuilder.array());
+        byteData.setDataLength(jsonByteBuilder.pos());
+    }
+
+    /**
+     * 有参数的日志直接按模板和参数流式写入, 不生成getFormattedMessage的中间字符串
+     */
+    private void writeMessage(JsonByteBuilder jsonByteBuilder, ILoggingEvent log) {
+        String pattern = log.getMessage();
+        Object[] args = log.getArgumentArray();
+        if (isNull(pattern) || isNull(args)) {
+            jsonByteBuilder.value(log.getFormattedMessage(), maxMsgSize);
+            return;
+        }
+        jsonByteBuilder.beginString(maxMsgSize);
+        MessageFormatEncoder.write(jsonByteBuilder, pattern, args);
+        jsonByteBuilder.endString();
+    }
+
     /**
      * 从当前线程中获取，避免多线程并发问题
      */
@@ -77,7 +124,7 @@ public class MessageConverter {
         JsonByteBuilder jsonByteBuilder = this.threadLocal.get();
 
         if (isNull(jsonByteBuilder)) {
-            jsonByteBuilder = JsonByteBuilder.create();
+            jsonByteBuilder = JsonByteBuilder.create(BufferPool.getDefault());
             threadLocal.set(jsonByteBuilder);
         }
         return jsonByteBuilder;
@@ -93,7 +140,11 @@ public class MessageConverter {
         public static final String DATA_CALLER = "caller"; //todo
         public static final String DATA_SEQ = "seq";
         public static final String DATA_THROWABLE = "throwable";
+        public static final String DATA_THROWABLE_HASH = "throwableHash";
         public static final String DATA_TIME_MILLSECOND = "ts";
         public static final String DATA_TIMESTAMP = "@timestamp";
+        public static final String DATA_REPEAT = "repeat";
+        public static final String DATA_FIRST_TS = "firstTs";
+        public static final String DATA_LAST_TS = "lastTs";
     }
 }
@@ -0,0 +1,96 @@
+package com.zmh.fastlog.worker.log;
+
+import com.zmh.fastlog.utils.StringAppender;
+import org.slf4j.helpers.MessageFormatter;
+import org.slf4j.helpers.Util;
+
+import static java.util.Objects.isNull;
+
+/**
+ * 直接按日志模板和参数写入日志内容, 输出与 ILoggingEvent.getFormattedMessage() 一致,
+ * 省去MessageFormatter拼接出的中间字符串, 以及对这个字符串的再次扫描和拷贝
+ * <p>
+ * 格式化规则与slf4j的MessageFormatter.arrayFormat相同:
+ * 1、{} 依次替换为参数, 参数不够时保留 {}
+ * 2、\{} 表示转义, 输出 {} 且不消耗参数, \\{} 表示转义了反斜杠, 输出 \ 和参数
+ * 3、最后一个参数是Throwable时不参与格式化
+ *
+ * @author zmh
+ */
+public class MessageFormatEncoder {
+
+    private static final String DELIM_STR = "{}";
+    private static final String DELIM_START = "{";
+    private static final char ESCAPE_CHAR = '\\';
+
+    private MessageFormatEncoder() {
+    }
+
+    /**
+     * 写入格式化后的日志, 调用方负责beginString和endString, 达到最大长度后提前结束
+     */
+    public static void write(StringAppender out, String pattern, Object[] args) {
+        int argCount = args.length;
+        if (argCount > 0 && args[argCount - 1] instanceof Throwable) {
+            argCount--;
+        }
+
+        int i = 0;
+        for (int l = 0; l < argCount; l++) {
+            if (out.isStringFull()) {
+                return;
+            }
+            int j = pattern.indexOf(DELIM_STR, i);
+            if (j == -1) {
+                break;
+            }
+            if (isEscapedDelimiter(pattern, j)) {
+                if (!isDoubleEscaped(pattern, j)) {
+                    // \{} 不消耗参数
+                    l--;
+                    out.appendString(pattern, i, j - 1);
+                    out.appendString(DELIM_START);
+                    i = j + 1;
+                } else {
+                    // \\{} 输出一个 \ 和参数
+                    out.appendString(pattern, i, j - 1);
+                    appendParameter(out, args[l]);
+                    i = j + 2;
+                }
+            } else {
+                out.appendString(pattern, i, j);
+                appendParameter(out, args[l]);
+                i = j + 2;
+            }
+        }
+        out.appendString(pattern, i, pattern.length());
+    }
+
+    private static boolean isEscapedDelimiter(String pattern, int delimiterStartIndex) {
+        return delimiterStartIndex != 0 && pattern.charAt(delimiterStartIndex - 1) == ESCAPE_CHAR;
+    }
+
+    private static boolean isDoubleEscaped(String pattern, int delimiterStartIndex) {
+        return delimiterStartIndex >= 2 && pattern.charAt(delimiterStartIndex - 2) == ESCAPE_CHAR;
+    }
+
+    private static void appendParameter(StringAppender out, Object arg) {
+        if (isNull(arg)) {
+            out.appendString("null");
+        } else if (arg instanceof String) {
+            out.appendString((String) arg);
+        } else if (arg.getClass().isArray()) {
+            // 数组参数很少见, 直接使用slf4j的格式化, 保证数组展开和循环引用的处理一致
+            out.appendString(MessageFormatter.arrayFormat(DELIM_STR, new Object[]{arg}).getMessage());
+        } else {
+            String str;
+            try {
+                str = arg.toString();
+            } catch (Throwable t) {
+                Util.report("SLF4J: Failed toString() invocation on an object of type [" + arg.getClass().getName() + "]", t);
+                str = "[FAILED toString()]";
+            }
+            out.appendString(isNull(str) ? "null" : str);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import com.zmh.fastlog.config.FastLogConfig;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * 日志缓冲区满了之后按overflowPolicy重试写入, LogWorker和ByteRingLogWorker共用
+ *
+ * @author zmh
+ */
+class OverflowHandler {
+
+    // 缓冲区满时每次重试前的等待时间
+    private static final long OVERFLOW_RETRY_NANOS = 1000;
+
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowBlockNanos;
+    private final Level overflowKeepLevel;
+    // 所属的LogWorker已经关闭, 不再等待
+    private final BooleanSupplier closed;
+
+    OverflowHandler(FastLogConfig config, BooleanSupplier closed) {
+        this.overflowPolicy = OverflowPolicy.of(config.getOverflowPolicy());
+        this.overflowBlockNanos = MICROSECONDS.toNanos(config.getOverflowBlockMicros());
+        this.overflowKeepLevel = Level.toLevel(config.getOverflowKeepLevel(), Level.WARN);
+        this.closed = closed;
+    }
+
+    /**
+     * 第一次写入失败后调用, 按overflowPolicy重试
+     *
+     * @param tryPublish 不阻塞的写入, 缓冲区满时返回false
+     * @return false 日志需要丢弃, 由调用方计入logMissingCount
+     */
+    boolean retry(Level level, BooleanSupplier tryPublish) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                while (!closed.getAsBoolean()) {
+                    LockSupport.parkNanos(OVERFLOW_RETRY_NANOS);
+                    if (tryPublish.getAsBoolean()) {
+                        return true;
+                    }
+                }
+                return false;
+            case DROP_BY_LEVEL:
+                return level.isGreaterOrEqual(overflowKeepLevel) && retryWithDeadline(tryPublish);
+            case BLOCK_WITH_DEADLINE:
+                return retryWithDeadline(tryPublish);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 最多等待overflowBlockNanos，保证业务线程不会因为日志缓冲区满而长时间阻塞
+     */
+    private boolean retryWithDeadline(BooleanSupplier tryPublish) {
+        long deadline = System.nanoTime() + overflowBlockNanos;
+        while (!closed.getAsBoolean() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(OVERFLOW_RETRY_NANOS);
+            if (tryPublish.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
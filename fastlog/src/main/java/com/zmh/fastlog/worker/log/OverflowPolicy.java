@@ -0,0 +1,46 @@
+package com.zmh.fastlog.worker.log;
+
+/**
+ * 日志缓冲区满了之后的处理策略，对应配置项 overflowPolicy
+ *
+ * @author zmh
+ */
+public enum OverflowPolicy {
+    /**
+     * 一直阻塞等待，直到缓冲区有空位
+     */
+    BLOCK("block"),
+
+    /**
+     * 直接丢弃当前日志
+     */
+    DROP_NEWEST("dropNewest"),
+
+    /**
+     * 低于保留级别的日志直接丢弃，其余日志在限定时间内等待，超时丢弃
+     */
+    DROP_BY_LEVEL("dropByLevel"),
+
+    /**
+     * 在限定时间内等待，超时丢弃
+     */
+    BLOCK_WITH_DEADLINE("blockWithDeadline");
+
+    private final String configName;
+
+    OverflowPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * 根据配置名称获取策略，配置为空或无法识别时使用BLOCK，与原有的阻塞行为保持一致
+     */
+    public static OverflowPolicy of(String configName) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.configName.equalsIgnoreCase(configName) || policy.name().equalsIgnoreCase(configName)) {
+                return policy;
+            }
+        }
+        return BLOCK;
+    }
+}
@@ -0,0 +1,65 @@
+package com.zmh.fastlog.worker.log;
+
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.LastConfirmedSeq;
+import com.zmh.fastlog.worker.ConfirmedSeqListener;
+import com.zmh.fastlog.worker.Worker;
+import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.mq.MqWorker;
+
+import static com.zmh.fastlog.utils.Utils.safeClose;
+
+/**
+ * 分片的LogWorker, 每个分片有独立的缓冲区和消费线程,
+ * 业务线程按线程id选择分片, 多核场景下避免所有线程竞争同一个MULTI生产者的sequencer
+ * <p>
+ * 日志id按 n * shardCount + shardIndex 生成, mq发回来的LastConfirmedSeq可以按id找到对应的分片,
+ * 每个分片独立判断自己的日志是否已经从文件缓冲区发完, 独立在mq和file之间切换
+ * 日志中的seq按同样的规则生成, 只在同一分片内按写入缓冲区的顺序递增
+ *
+ * @author zmh
+ */
+public class StripedLogWorker implements Worker<Object>, ConfirmedSeqListener {
+
+    private final LogWorker[] shards;
+
+    public StripedLogWorker(MqWorker mqWorker, FileWorker fileWorker, FastLogConfig config) {
+        int shardCount = config.getLogShardCount();
+        shards = new LogWorker[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new LogWorker(mqWorker, fileWorker, config, i, shardCount);
+            }
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        }
+        mqWorker.registerLogWorker(this, shardCount);
+    }
+
+    @Override
+    public boolean enqueue(Object message) {
+        if (message instanceof LastConfirmedSeq) {
+            onConfirmed(((LastConfirmedSeq) message).getSeq());
+            return true;
+        }
+        return shards[(int) (Thread.currentThread().getId() % shards.length)].enqueue(message);
+    }
+
+    @Override
+    public boolean tryEnqueue(Object message) {
+        return shards[(int) (Thread.currentThread().getId() % shards.length)].tryEnqueue(message);
+    }
+
+    @Override
+    public void onConfirmed(long messageId) {
+        shards[(int) (messageId % shards.length)].onConfirmed(messageId);
+    }
+
+    @Override
+    public void close() {
+        for (LogWorker shard : shards) {
+            safeClose(shard);
+        }
+    }
+}
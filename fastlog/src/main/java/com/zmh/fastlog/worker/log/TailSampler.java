@@ -0,0 +1,277 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.zmh.fastlog.utils.ScheduleUtils.scheduleAtFixedRate;
+import static com.zmh.fastlog.utils.Utils.safeClose;
+import static com.zmh.fastlog.utils.Utils.sneakyInvoke;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 尾部采样, 对应配置项 tailSamplingLevel
+ * <p>
+ * 1、低于tailSamplingLevel的日志不直接发送, 按上下文缓存在内存中, 上下文是MDC中的tailSamplingTraceKey, 没有时为线程名
+ * 2、同一个上下文出现ERROR日志时, 先发送窗口内缓存的日志, 再发送ERROR日志, 故障现场的上下文完整保留
+ * 3、每个上下文最多缓存tailSamplingBufferSize条, 超过后覆盖最早的日志; 超过窗口没有ERROR的日志直接丢弃
+ * 4、所有上下文合计最多缓存tailSamplingMaxEvents条, 达到上限后新日志覆盖所在上下文最早的日志,
+ * 上下文中还没有日志时直接丢弃并计数
+ * <p>
+ * 上下文被flush或clean移除时在锁内标记为关闭, 同时写入的线程发现关闭后重新创建上下文, 日志不会写入已经移除的上下文
+ * <p>
+ * 这样生产环境可以打开DEBUG日志, 发送量接近只打开INFO日志
+ *
+ * @author zmh
+ */
+public class TailSampler implements Closeable {
+
+    // 上下文数量上限, 超过后新上下文的低级别日志直接丢弃
+    private static final int MAX_CONTEXTS = 10000;
+
+    // 低于这个级别的日志先缓存
+    private final int bufferLevel;
+    private final int bufferSize;
+    private final int maxEvents;
+    private final long windowMillis;
+    // MDC中的链路id, 为空时按线程缓存
+    private final String traceKey;
+
+    private final ConcurrentHashMap<String, Context> contexts = new ConcurrentHashMap<>();
+    // 所有上下文中缓存的日志条数
+    private final AtomicInteger retained = new AtomicInteger();
+
+    final LogMissingCountAndPrint droppedCount = new LogMissingCountAndPrint("tail sampling dropped count");
+
+    // 缓存的日志在出现ERROR后的去向
+    private final Consumer<ILoggingEvent> sink;
+
+    private final LoggerRules loggerRules;
+
+    private final ScheduledFuture<?> cleanSchedule;
+
+    /**
+     * @param loggerRules 所属appender的过滤规则
+     * @return 没有配置tailSamplingLevel时返回null
+     */
+    public static TailSampler create(FastLogConfig config, LoggerRules loggerRules, Consumer<ILoggingEvent> sink) {
+        String level = config.getTailSamplingLevel();
+        if (isNull(level) || level.trim().isEmpty()) {
+            return null;
+        }
+        Level bufferLevel = Level.toLevel(level.trim(), null);
+        if (isNull(bufferLevel)) {
+            throw new IllegalArgumentException("invalid tailSamplingLevel: " + level);
+        }
+        return new TailSampler(bufferLevel, config.getTailSamplingBufferSize(), config.getTailSamplingMaxEvents(),
+            config.getTailSamplingWindowSeconds(), config.getTailSamplingTraceKey(), loggerRules, sink);
+    }
+
+    TailSampler(Level bufferLevel, int bufferSize, int maxEvents, int windowSeconds, String traceKey,
+                LoggerRules loggerRules, Consumer<ILoggingEvent> sink) {
+        // ERROR日志总是直接发送
+        this.bufferLevel = Math.min(bufferLevel.levelInt, Level.ERROR_INT);
+        this.bufferSize = Math.max(1, bufferSize);
+        this.maxEvents = Math.max(1, maxEvents);
+        this.windowMillis = SECONDS.toMillis(Math.max(1, windowSeconds));
+        this.traceKey = nonNull(traceKey) && !traceKey.trim().isEmpty() ? traceKey.trim() : null;
+        this.loggerRules = loggerRules;
+        this.sink = sink;
+        this.cleanSchedule = scheduleAtFixedRate(() -> clean(System.currentTimeMillis()),
+            windowMillis, windowMillis, MILLISECONDS);
+    }
+
+    /**
+     * @return true 日志已经缓存或者丢弃, 调用方不再发送
+     */
+    public boolean offer(ILoggingEvent event) {
+        int level = event.getLevel().levelInt;
+        if (level >= bufferLevel) {
+            if (level >= Level.ERROR_INT) {
+                flush(contextKey(event), event.getTimeStamp());
+            }
+            return false;
+        }
+        if (loggerRules.isExclude(event.getLoggerName(), event.getLevel())) {
+            return true;
+        }
+        String key = contextKey(event);
+        // 线程名、MDC和格式化后的消息需要在业务线程中固定下来
+        event.prepareForDeferredProcessing();
+        while (true) {
+            Context context = context(key);
+            if (isNull(context)) {
+                droppedCount.increment();
+                return true;
+            }
+            switch (context.add(event, retained.get() >= maxEvents)) {
+                case Context.ADDED:
+                    retained.incrementAndGet();
+                    return true;
+                case Context.DROPPED:
+                    droppedCount.increment();
+                    return true;
+                case Context.CLOSED:
+                    // 上下文刚被flush或clean移除, 重新创建
+                    contexts.remove(key, context);
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private String contextKey(ILoggingEvent event) {
+        if (nonNull(traceKey)) {
+            Map<String, String> mdc = event.getMDCPropertyMap();
+            String traceId = isNull(mdc) ? null : mdc.get(traceKey);
+            if (nonNull(traceId)) {
+                return traceId;
+            }
+        }
+        return event.getThreadName();
+    }
+
+    private Context context(String key) {
+        Context context = contexts.get(key);
+        if (isNull(context)) {
+            if (contexts.size() >= MAX_CONTEXTS) {
+                return null;
+            }
+            context = contexts.computeIfAbsent(key, k -> new Context(bufferSize));
+        }
+        return context;
+    }
+
+    /**
+     * 发送上下文中窗口内缓存的日志
+     */
+    private void flush(String key, long now) {
+        Context context = contexts.remove(key);
+        if (isNull(context)) {
+            return;
+        }
+        ILoggingEvent[] events = context.close();
+        retained.addAndGet(-events.length);
+        for (ILoggingEvent event : events) {
+            if (now - event.getTimeStamp() <= windowMillis) {
+                sink.accept(event);
+            }
+        }
+    }
+
+    /**
+     * 清理超过窗口没有新日志的上下文, 其中的日志直接丢弃
+     */
+    void clean(long now) {
+        contexts.forEach((key, context) -> {
+            ILoggingEvent[] events = context.closeIfIdle(now - windowMillis);
+            if (nonNull(events)) {
+                contexts.remove(key, context);
+                retained.addAndGet(-events.length);
+            }
+        });
+    }
+
+    int contextCount() {
+        return contexts.size();
+    }
+
+    int retainedCount() {
+        return retained.get();
+    }
+
+    @Override
+    public void close() {
+        sneakyInvoke(() -> cleanSchedule.cancel(false));
+        contexts.clear();
+        retained.set(0);
+        safeClose(droppedCount);
+    }
+
+    /**
+     * 一个上下文的环形缓存, 满了之后覆盖最早的日志
+     */
+    private static final class Context {
+        // add的结果
+        private static final int ADDED = 0;
+        private static final int REPLACED = 1;
+        private static final int DROPPED = 2;
+        private static final int CLOSED = 3;
+
+        private final ILoggingEvent[] events;
+        private int head;
+        private int size;
+        private long lastTimeStamp;
+        // 已经从contexts中移除, 不再接收日志
+        private boolean closed;
+
+        private Context(int capacity) {
+            this.events = new ILoggingEvent[capacity];
+        }
+
+        /**
+         * @param overCap 已经达到全局上限, 只能覆盖当前上下文最早的日志
+         */
+        private synchronized int add(ILoggingEvent event, boolean overCap) {
+            if (closed) {
+                return CLOSED;
+            }
+            int capacity = events.length;
+            int result = ADDED;
+            if (size == capacity || (overCap && size > 0)) {
+                // 去掉最早的日志
+                events[head] = null;
+                head = (head + 1) % capacity;
+                size--;
+                result = REPLACED;
+            } else if (overCap) {
+                return DROPPED;
+            }
+            events[(head + size) % capacity] = event;
+            size++;
+            lastTimeStamp = event.getTimeStamp();
+            return result;
+        }
+
+        /**
+         * 标记为关闭并取出缓存的日志
+         *
+         * @return 按时间顺序的日志, 在锁外发送, 避免发送阻塞时其他线程无法缓存
+         */
+        private synchronized ILoggingEvent[] close() {
+            closed = true;
+            ILoggingEvent[] result = new ILoggingEvent[size];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % events.length;
+                result[i] = events[index];
+                events[index] = null;
+            }
+            head = 0;
+            size = 0;
+            return result;
+        }
+
+        /**
+         * 最后一条日志早于deadline时关闭
+         *
+         * @return 被丢弃的日志, 没有关闭时返回null
+         */
+        private synchronized ILoggingEvent[] closeIfIdle(long deadline) {
+            if (closed || lastTimeStamp >= deadline) {
+                return null;
+            }
+            return close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.ClassPackagingData;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import com.zmh.fastlog.utils.JsonByteBuilder;
+import com.zmh.fastlog.utils.StringAppender;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.zmh.fastlog.worker.log.MessageConverter.Consts.DATA_THROWABLE;
+import static com.zmh.fastlog.worker.log.MessageConverter.Consts.DATA_THROWABLE_HASH;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * 把异常堆栈直接写入json, 输出与 ThrowableProxyUtil.asString 一致,
+ * 不再先拼接出几KB的字符串再转义拷贝一次
+ * <p>
+ * 开启去重后(dedupWindowMillis > 0), 按异常类型和堆栈计算指纹, 同时写入throwableHash字段,
+ * 同一指纹在时间窗口内只有第一次输出完整堆栈, 之后只输出第一行(异常类型和message),
+ * 异常风暴时mq和磁盘缓存不用再传输大量重复的堆栈
+ *
+ * @author zmh
+ */
+public class ThrowableEncoder {
+
+    private static final String TAB = "\t";
+    private static final String COMMON_FRAMES_OMITTED = " common frames omitted";
+
+    // 最多记录的指纹数量, 超过后先清理过期的指纹, 仍然超过则不再记录新指纹
+    private static final int MAX_FINGERPRINTS = 4096;
+
+    private final long dedupWindowMillis;
+
+    // 指纹 -> 时间窗口内第一次输出完整堆栈的时间
+    private final ConcurrentHashMap<Long, Long> fingerprints = new ConcurrentHashMap<>();
+
+    public ThrowableEncoder(long dedupWindowMillis) {
+        this.dedupWindowMillis = dedupWindowMillis;
+    }
+
+    public void write(JsonByteBuilder out, IThrowableProxy tp, long timestamp) {
+        boolean duplicate = false;
+        if (isDedupEnabled()) {
+            long fingerprint = fingerprint(tp);
+            out.key(DATA_THROWABLE_HASH).value(Long.toHexString(fingerprint));
+            duplicate = isDuplicate(fingerprint, timestamp);
+        }
+        out.key(DATA_THROWABLE).beginString(Integer.MAX_VALUE);
+        append(out, tp, duplicate);
+        out.endString();
+    }
+
+    public boolean isDedupEnabled() {
+        return dedupWindowMillis > 0;
+    }
+
+    /**
+     * 同一指纹在时间窗口内是否已经输出过完整堆栈, 返回false时记录本次输出的时间
+     */
+    public boolean isDuplicate(long fingerprint, long timestamp) {
+        Long first = fingerprints.get(fingerprint);
+        if (nonNull(first) && timestamp - first < dedupWindowMillis) {
+            return true;
+        }
+        if (isNull(first) && fingerprints.size() >= MAX_FINGERPRINTS) {
+            fingerprints.values().removeIf(time -> timestamp - time >= dedupWindowMillis);
+            if (fingerprints.size() >= MAX_FINGERPRINTS) {
+                return false;
+            }
+        }
+        fingerprints.put(fingerprint, timestamp);
+        return false;
+    }
+
+    /**
+     * 按异常类型和堆栈计算指纹, 不包含message, message中经常带有id等变化的内容
+     */
+    public static long fingerprint(IThrowableProxy tp) {
+        long hash = 0xcbf29ce484222325L;
+        while (nonNull(tp)) {
+            hash = mix(hash, tp.getClassName().hashCode());
+            for (StackTraceElementProxy step : tp.getStackTraceElementProxyArray()) {
+                hash = mix(hash, step.getStackTraceElement().hashCode());
+            }
+            IThrowableProxy[] suppressed = tp.getSuppressed();
+            if (nonNull(suppressed)) {
+                for (IThrowableProxy current : suppressed) {
+                    hash = mix(hash, fingerprint(current));
+                }
+            }
+            tp = tp.getCause();
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * 写入异常堆栈的文本, 调用方负责beginString和endString
+     *
+     * @param firstLineOnly 只写入第一行(异常类型和message)
+     */
+    public static void append(StringAppender out, IThrowableProxy tp, boolean firstLineOnly) {
+        if (firstLineOnly) {
+            appendFirstLine(out, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, tp);
+        } else {
+            recursiveAppend(out, null, ThrowableProxyUtil.REGULAR_EXCEPTION_INDENT, tp);
+        }
+    }
+
+    // 以下与ThrowableProxyUtil的实现保持一致
+
+    private static void recursiveAppend(StringAppender out, String prefix, int indent, IThrowableProxy tp) {
+        if (isNull(tp) || out.isStringFull()) {
+            return;
+        }
+        appendFirstLine(out, prefix, indent, tp);
+        appendSTEPArray(out, indent, tp);
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        if (nonNull(suppressed)) {
+            for (IThrowableProxy current : suppressed) {
+                recursiveAppend(out, CoreConstants.SUPPRESSED, indent + ThrowableProxyUtil.SUPPRESSED_EXCEPTION_INDENT, current);
+            }
+        }
+        recursiveAppend(out, CoreConstants.CAUSED_BY, indent, tp.getCause());
+    }
+
+    private static void appendFirstLine(StringAppender out, String prefix, int indent, IThrowableProxy tp) {
+        indent(out, indent - 1);
+        if (nonNull(prefix)) {
+            out.appendString(prefix);
+        }
+        out.appendString(tp.getClassName())
+            .appendString(": ")
+            .appendString(String.valueOf(tp.getMessage()))
+            .appendString(CoreConstants.LINE_SEPARATOR);
+    }
+
+    private static void appendSTEPArray(StringAppender out, int indent, IThrowableProxy tp) {
+        StackTraceElementProxy[] stepArray = tp.getStackTraceElementProxyArray();
+        int commonFrames = tp.getCommonFrames();
+        for (int i = 0; i < stepArray.length - commonFrames; i++) {
+            StackTraceElementProxy step = stepArray[i];
+            indent(out, indent);
+            out.appendString("at ")
+                .appendString(step.getStackTraceElement().toString());
+            appendPackagingData(out, step);
+            out.appendString(CoreConstants.LINE_SEPARATOR);
+        }
+        if (commonFrames > 0) {
+            indent(out, indent);
+            out.appendString("... ")
+                .appendString(Integer.toString(commonFrames))
+                .appendString(COMMON_FRAMES_OMITTED)
+                .appendString(CoreConstants.LINE_SEPARATOR);
+        }
+    }
+
+    private static void appendPackagingData(StringAppender out, StackTraceElementProxy step) {
+        ClassPackagingData cpd = step.getClassPackagingData();
+        if (nonNull(cpd)) {
+            out.appendString(cpd.isExact() ? " [" : " ~[")
+                .appendString(String.valueOf(cpd.getCodeLocation()))
+                .appendString(":")
+                .appendString(String.valueOf(cpd.getVersion()))
+                .appendString("]");
+        }
+    }
+
+    private static void indent(StringAppender out, int indent) {
+        for (int j = 0; j < indent; j++) {
+            out.appendString(TAB);
+        }
+    }
+}
@@ -3,25 +3,33 @@ package com.zmh.fastlog.worker.mq;
 import com.lmax.disruptor.*;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import com.zmh.fastlog.config.FastLogConfig;
 import com.zmh.fastlog.model.event.EventSlot;
 import com.zmh.fastlog.model.message.ByteData;
 import com.zmh.fastlog.model.message.LastConfirmedSeq;
-import com.zmh.fastlog.utils.ThreadUtils;
+import com.zmh.fastlog.utils.ParkingSignal;
 import com.zmh.fastlog.worker.AbstractWorker;
+import com.zmh.fastlog.worker.ConfirmedSeqListener;
+import com.zmh.fastlog.worker.WaitStrategies;
+import com.zmh.fastlog.worker.Worker;
 import com.zmh.fastlog.worker.log.LogMissingCountAndPrint;
-import com.zmh.fastlog.worker.log.LogWorker;
 import com.zmh.fastlog.worker.mq.producer.MqProducer;
 import lombok.SneakyThrows;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import static com.zmh.fastlog.utils.ThreadUtils.namedDaemonThreadFactory;
 import static com.zmh.fastlog.utils.Utils.debugLog;
-import static java.lang.System.currentTimeMillis;
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class MqWorker extends AbstractWorker<ByteData, EventSlot>
     implements BatchStartAware, TimeoutHandler {
 
-    private LogWorker logWorker;
+    // 注册的LogWorker和各分片的发送进度, 消费线程启动之后才注册, 通过volatile整体发布
+    private volatile ShardProgress progress = new ShardProgress(null, 1);
 
     private final Disruptor<EventSlot> queue;
     private RingBuffer<EventSlot> ringBuffer;
@@ -33,34 +41,115 @@ public class MqWorker extends AbstractWorker<ByteData, EventSlot>
     private final int batchSize;
     private LogMissingCountAndPrint mqCount = new LogMissingCountAndPrint("mq send count");
 
+    // 缓冲区有了空闲空间或者mqProducer恢复时的回调, 由写入失败后等待的LogWorker注册
+    private final List<Runnable> capacityListeners = new CopyOnWriteArrayList<>();
+
+    // mqProducer恢复的通知, 消费线程等待mqProducer准备好时使用
+    private final ParkingSignal readySignal = new ParkingSignal();
+
+    // 本地文件缓冲区补发时, 需要给实时日志保留的缓冲区空间, 不是parallelDrain时为0
+    private final int backlogReserve;
+
+    // 等待mqProducer准备好的最长时间, 之后重新检查一次
+    private static final long READY_WAIT_NANOS = MILLISECONDS.toNanos(100);
+
 
     public MqWorker(MqProducer mqProducer, int batchSize) {
+        this(mqProducer, batchSize, ProducerType.SINGLE, null, false);
+    }
+
+    /**
+     * LogWorker分片时, 多个分片的消费线程会同时写入;
+     * parallelDrain时, LogWorker和FileWorker会同时写入, 此时需要使用多生产者
+     */
+    public MqWorker(MqProducer mqProducer, FastLogConfig config) {
+        this(mqProducer, config.getBatchMessageSize(),
+            config.getLogShardCount() > 1 || config.isParallelDrain() ? ProducerType.MULTI : ProducerType.SINGLE,
+            config.getMqWaitStrategy(), config.isParallelDrain());
+    }
+
+    private MqWorker(MqProducer mqProducer, int batchSize, ProducerType producerType, String waitStrategy, boolean parallelDrain) {
         this.mqProducer = mqProducer;
         this.batchSize = batchSize;
+        // 补发时给实时日志保留一半的缓冲区
+        this.backlogReserve = parallelDrain ? batchSize << 3 : 0;
 
         queue = new Disruptor<>(
             EventSlot::new,
             batchSize << 4,
             namedDaemonThreadFactory("log-mq-worker"),
-            ProducerType.SINGLE,
-            new LiteTimeoutBlockingWaitStrategy(1, SECONDS)
+            producerType,
+            WaitStrategies.create(waitStrategy, 1, SECONDS)
         );
         queue.handleEventsWith(this);
         ringBuffer = queue.getRingBuffer();
 
+        mqProducer.setReadyListener(this::onProducerReady);
         mqProducer.connect();
         queue.start();
     }
 
-    public void registerLogWorker(LogWorker logWorker) {
-        this.logWorker = logWorker;
+    public void registerLogWorker(Worker<Object> logWorker) {
+        registerLogWorker(logWorker, 1);
+    }
+
+    /**
+     * @param shardCount LogWorker的分片数, 每个分片的已发送messageId单独记录, 单独通知
+     */
+    public void registerLogWorker(Worker<Object> logWorker, int shardCount) {
+        this.progress = new ShardProgress(logWorker, shardCount);
+    }
+
+    /**
+     * 各LogWorker分片的发送进度, 数组只在消费线程中读写
+     */
+    private static final class ShardProgress {
+        private final Worker<Object> logWorker;
+        // 每个LogWorker分片上次mq成功发送出去的messageId
+        private final long[] lastMessageIds;
+        // 已经交给mqProducer, 但还没有flush的messageId
+        private final long[] pendingMessageIds;
+        // 上次发送给logworker各分片，mq已经成功处理的messageId
+        private final long[] lastSendSeqIds;
+
+        private ShardProgress(Worker<Object> logWorker, int shardCount) {
+            this.logWorker = logWorker;
+            this.lastMessageIds = new long[shardCount];
+            this.pendingMessageIds = new long[shardCount];
+            this.lastSendSeqIds = new long[shardCount];
+            // 分片的初始id就是分片序号, 见LogWorker
+            // lastSendSeqIds从-1开始, 启动后先通知一次初始id, LogWorker还没有写入本地文件时直接切换到mq
+            for (int i = 0; i < shardCount; i++) {
+                lastMessageIds[i] = i;
+                pendingMessageIds[i] = i;
+                lastSendSeqIds[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * enqueue失败后, 缓冲区有了空闲空间或者mqProducer恢复时回调listener, 回调在MqWorker的线程中执行, 不能阻塞
+     */
+    public void addCapacityListener(Runnable listener) {
+        capacityListeners.add(listener);
+    }
+
+    private void notifyCapacity() {
+        for (Runnable listener : capacityListeners) {
+            listener.run();
+        }
+    }
+
+    private void onProducerReady() {
+        readySignal.signalAll();
+        notifyCapacity();
     }
 
     /**
      * mq ring buffer 生产者
      *
-     * @param byteData 入参有两种情况，同一时刻只能有一方会发来日志
-     *                1、从文件发过来的
+     * @param byteData 入参有两种情况，不是parallelDrain时同一时刻只能有一方会发来日志
+     *                1、从文件发过来的，见enqueueBacklog
      *                2、直接从日志发过来的
      * @return true 日志发送成功 false 日志发送失败
      */
@@ -69,31 +158,71 @@ public class MqWorker extends AbstractWorker<ByteData, EventSlot>
         return !isDisposed && mqProducer.isReady() && ringBuffer.tryPublishEvent((e, s) -> byteData.switchData(e.getByteData()));
     }
 
-    // 上次mq成功发送出去的messageId
-    private long lastMessageId;
+    /**
+     * 补发本地文件缓冲区中的日志, parallelDrain时缓冲区剩余空间不超过backlogReserve就不再写入, 实时日志优先
+     */
+    public boolean enqueueBacklog(ByteData byteData) {
+        return ringBuffer.remainingCapacity() > backlogReserve && enqueue(byteData);
+    }
 
     @Override
     public void dequeue(EventSlot event, long sequence, boolean endOfBatch) {
-        // 消费的时候，有可能mqProducer还没准备好，此时需要尽可能的等待mqProducer准备好为止
+        // 消费的时候，有可能mqProducer还没准备好，此时需要尽可能的等待mqProducer准备好为止，准备好之后立即被唤醒
+        long readyVersion = readySignal.version();
         while (!mqProducer.isReady()) {
-            ThreadUtils.sleep(100);
+            readySignal.await(readyVersion, READY_WAIT_NANOS);
+            readyVersion = readySignal.version();
         }
 
-        long processMessageId = event.getByteData().getId();
+        ByteData byteData = event.getByteData();
+        long processMessageId = byteData.getId();
+        ShardProgress progress = this.progress;
+        long[] pendingMessageIds = progress.pendingMessageIds;
+        pendingMessageIds[(int) (processMessageId % pendingMessageIds.length)] = processMessageId;
 
         mqProducer.sendEvent(event);
+        // mq是最后一个环节, sendEvent中已经复制了数据
+        byteData.releaseSlab();
 
         if (++batchIndex >= batchSize || endOfBatch) {
             mqProducer.flush();
             sequenceCallback.set(sequence);
+            // 已经腾出了空间, 唤醒写入失败后等待的LogWorker
+            notifyCapacity();
             batchIndex = 0;
-            this.lastMessageId = processMessageId;
+            System.arraycopy(pendingMessageIds, 0, progress.lastMessageIds, 0, pendingMessageIds.length);
         }
         if (endOfBatch) {
             sendSeqMsg();
         }
     }
 
+    /**
+     * fusedMqHandler时, 由LogWorker缓冲区上的mq消费者直接调用, 不经过MqWorker的缓冲区
+     * 每个LogWorker分片一个调用线程, mqProducer的发送是线程安全的
+     * 调用线程是日志缓冲区的消费者, 不等待mq恢复, 也不等待mqProducer腾出空间, 否则会堵住业务线程
+     *
+     * @return true 已经交给mqProducer false mq未就绪、发送会阻塞或者MqWorker已经关闭, 调用方改写本地文件
+     */
+    public boolean sendDirect(EventSlot event) {
+        if (isDisposed) {
+            return false;
+        }
+        ByteData byteData = event.getByteData();
+        if (!mqProducer.trySendEvent(event)) {
+            return false;
+        }
+        byteData.releaseSlab();
+        return true;
+    }
+
+    /**
+     * sendDirect的批次结束时调用, 不等待发送完成
+     */
+    public void flushDirect() {
+        mqProducer.flushAsync();
+    }
+
     private int batchIndex;
 
     @Override
@@ -103,28 +232,36 @@ public class MqWorker extends AbstractWorker<ByteData, EventSlot>
 
     @Override
     public void onTimeout(long sequence) {
-        if (sequence < 0) {
-            return;
-        }
+        // 缓冲区还没有日志时也需要通知, 见ShardProgress
         sendSeqMsg();
     }
 
-    // 下次发送messageId给log的时间 不早于这个时间，限制时间为了防止在日志低频发送时，不会每发一条日志，就通知一下logworker
-    private long nextSendSeqTime;
-    // 上次发送给logworker，mq已经成功处理的messageId
-    private long lastSendSeqId;
-
     /**
      * 发送给logworker，mq已经成功处理的messageId
-     * 真正触发条件：
-     * 1、当上次发送给logworker的messageId跟当前mq成功发送出去的messageId不一样时 or
-     * 2、时间晚于下次发送时间，这里会重复发送给logworker同样的messageId，目的是为了防止logworker有消息丢失的现象
+     * 只在messageId变化时发送，logworker通过旁路的水位记录，不会丢失，不需要定时重发
      */
     private void sendSeqMsg() {
-        if (lastSendSeqId != lastMessageId || (nextSendSeqTime < currentTimeMillis())) {
-            logWorker.enqueue(new LastConfirmedSeq(lastMessageId));
-            nextSendSeqTime = currentTimeMillis() + 1000;
-            lastSendSeqId = lastMessageId;
+        ShardProgress progress = this.progress;
+        Worker<Object> logWorker = progress.logWorker;
+        if (isNull(logWorker)) {
+            return;
+        }
+        long[] lastMessageIds = progress.lastMessageIds;
+        long[] lastSendSeqIds = progress.lastSendSeqIds;
+        for (int i = 0; i < lastMessageIds.length; i++) {
+            long lastMessageId = lastMessageIds[i];
+            if (lastSendSeqIds[i] != lastMessageId) {
+                confirm(logWorker, lastMessageId);
+                lastSendSeqIds[i] = lastMessageId;
+            }
+        }
+    }
+
+    private static void confirm(Worker<Object> logWorker, long messageId) {
+        if (logWorker instanceof ConfirmedSeqListener) {
+            ((ConfirmedSeqListener) logWorker).onConfirmed(messageId);
+        } else {
+            logWorker.enqueue(new LastConfirmedSeq(messageId));
         }
     }
 
@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.zmh.fastlog.utils.ScheduleUtils.scheduleWithFixedDelay;
 import static com.zmh.fastlog.utils.Utils.*;
@@ -30,11 +31,18 @@ public class KafkaProducer implements MqProducer {
 
     private final int batchSize;
 
+    // buffer.memory的默认值, 缓存写满后send会阻塞max.block.ms
+    private static final long BUFFER_MEMORY = 33554432;
+    // 已经send还没有结果的数据大小
+    private final AtomicLong pendingBytes = new AtomicLong();
+
     private long totalMissingCount = 0;
     private int kafkaMissingCount = 0;
 
     private boolean isReady;
 
+    private volatile Runnable readyListener;
+
     public KafkaProducer(String url, String topic, int batchSize) {
         if (isNotBlank(topic)) {
             topic = topic.toLowerCase();
@@ -74,18 +82,17 @@ public class KafkaProducer implements MqProducer {
     public void sendEvent(EventSlot event) {
         ByteData byteData = event.getByteData();
 
-        ByteBuffer buffer = ByteBuffer.wrap(byteData.getData());
-        buffer.limit(byteData.getDataLength());
-        ProducerRecord<String, ByteBuffer> record = new ProducerRecord<>(topic, buffer);
+        // 数据可能在堆外slab中, ByteBufferSerializer在send中同步复制, 返回后即可归还
+        ProducerRecord<String, ByteBuffer> record = new ProducerRecord<>(topic, byteData.toByteBuffer());
 
-        //int size = byteData.getDataLength();
-        //int index = count.addAndGet(size);
+        int size = byteData.getDataLength();
+        pendingBytes.addAndGet(size);
 
         producer.send(record, (metadata, e) -> {
+            pendingBytes.addAndGet(-size);
             if (nonNull(e)) {
                 addMissingCount(e);
             }
-            //count.getAndAdd(-size);
         });
 
        /* if (index >= 1000) {
@@ -113,6 +120,30 @@ public class KafkaProducer implements MqProducer {
         return isReady;
     }
 
+    /**
+     * 缓存快满时send会阻塞, 按已经发出还没有结果的数据大小提前判断, 留一半余量给记录头和批次开销
+     */
+    @Override
+    public boolean trySendEvent(EventSlot event) {
+        if (!isReady || pendingBytes.get() + event.getByteData().getDataLength() >= BUFFER_MEMORY >> 1) {
+            return false;
+        }
+        sendEvent(event);
+        return true;
+    }
+
+    @Override
+    public void setReadyListener(Runnable listener) {
+        this.readyListener = listener;
+    }
+
+    private void notifyReady() {
+        Runnable listener = this.readyListener;
+        if (nonNull(listener)) {
+            listener.run();
+        }
+    }
+
     @SneakyThrows
     private void heartbeat() {
 
@@ -126,6 +157,7 @@ public class KafkaProducer implements MqProducer {
             Future<RecordMetadata> future = producer.send(record);
             if (nonNull(future.get())) {
                 this.isReady = true;
+                notifyReady();
             }
         } catch (Exception e) {
             debugLog("fastlog kafka heartbeat fail, e:" + e.getMessage());
@@ -10,5 +10,30 @@ public interface MqProducer extends AutoCloseable {
 
     boolean isReady();
 
+    /**
+     * isReady从false变为true时回调, MqWorker借此立即唤醒等待mq恢复的线程
+     */
+    default void setReadyListener(Runnable listener) {
+    }
+
     void flush();
+
+    /**
+     * 不等待的发送, 未就绪或者发送会阻塞调用线程时直接返回
+     *
+     * @return false 没有发送, 由调用方另行处理
+     */
+    default boolean trySendEvent(EventSlot event) {
+        if (!isReady()) {
+            return false;
+        }
+        sendEvent(event);
+        return true;
+    }
+
+    /**
+     * 不等待的flush, 只触发发送
+     */
+    default void flushAsync() {
+    }
 }
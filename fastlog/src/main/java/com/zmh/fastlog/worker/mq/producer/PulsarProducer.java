@@ -9,6 +9,7 @@ import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.impl.TypedMessageBuilderImpl;
 
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.zmh.fastlog.utils.ScheduleUtils.scheduleWithFixedDelay;
 import static com.zmh.fastlog.utils.Utils.*;
@@ -25,13 +26,18 @@ public class PulsarProducer implements MqProducer {
     private final String url;
     private final String topic;
     private final int batchMessageSize;
+    private final int maxPendingMessages;
 
+    // 已经sendAsync还没有结果的消息数, 达到maxPendingMessages时sendAsync会阻塞
+    private final AtomicInteger pendingCount = new AtomicInteger();
 
     private volatile PulsarClient client;
     private volatile Producer<byte[]> producer;
 
     private boolean isReady = false;
 
+    private volatile Runnable readyListener;
+
     private int totalMissingCount = 0;
     private int pulsarMissingCount = 0;
 
@@ -42,6 +48,7 @@ public class PulsarProducer implements MqProducer {
         this.url = url;
         this.topic = topic;
         this.batchMessageSize = batchMessageSize;
+        this.maxPendingMessages = batchMessageSize << 1;
     }
 
     private ScheduledFuture<?> connectFuture;
@@ -74,7 +81,7 @@ public class PulsarProducer implements MqProducer {
                     .batchingMaxPublishDelay(5, MILLISECONDS) // 每批的时间大约50ms, 延迟为50/5
                     .enableBatching(true)
                     .blockIfQueueFull(true)
-                    .maxPendingMessages(batchMessageSize << 1)
+                    .maxPendingMessages(maxPendingMessages)
                     .sendTimeout(30, SECONDS)
                     .compressionType(LZ4)
                     .create();
@@ -93,15 +100,32 @@ public class PulsarProducer implements MqProducer {
 
         ByteData buffer = event.getByteData();
 
-        pulsarMessage.value(buffer.getData());
-        pulsarMessage.getContent().limit(buffer.getDataLength());
+        // 异步发送期间需要一直持有数据, 复制出来之后槽位的缓冲可以立即复用或者归还缓冲池
+        byte[] bytes = new byte[buffer.getDataLength()];
+        buffer.copyTo(bytes);
+        pulsarMessage.value(bytes);
+        event.clear();
 
+        pendingCount.incrementAndGet();
         pulsarMessage.sendAsync()
-            .exceptionally(t -> {
-                addMissingCount(t);
-                return null;
-            })
-            .thenRun(event::clear);
+            .whenComplete((id, t) -> {
+                pendingCount.decrementAndGet();
+                if (nonNull(t)) {
+                    addMissingCount(t);
+                }
+            });
+    }
+
+    /**
+     * blockIfQueueFull时队列满了sendAsync会阻塞, 提前按maxPendingMessages判断
+     */
+    @Override
+    public boolean trySendEvent(EventSlot event) {
+        if (!isReady || pendingCount.get() >= maxPendingMessages) {
+            return false;
+        }
+        sendEvent(event);
+        return true;
     }
 
     private void addMissingCount(Throwable t) {
@@ -118,6 +142,18 @@ public class PulsarProducer implements MqProducer {
         return isReady;
     }
 
+    @Override
+    public void setReadyListener(Runnable listener) {
+        this.readyListener = listener;
+    }
+
+    private void notifyReady() {
+        Runnable listener = this.readyListener;
+        if (nonNull(listener)) {
+            listener.run();
+        }
+    }
+
     @SneakyThrows
     private void heartbeat() {
         if (isReady) {
@@ -127,6 +163,7 @@ public class PulsarProducer implements MqProducer {
         try {
             if (nonNull(producer.send("heartbeat".getBytes()))) {
                 this.isReady = true;
+                notifyReady();
             }
         } catch (Exception e) {
             debugLog("fastlog pulsar heartbeat fail, e:" + e.getMessage());
@@ -143,6 +180,11 @@ public class PulsarProducer implements MqProducer {
         }
     }
 
+    @Override
+    public void flushAsync() {
+        producer.flushAsync();
+    }
+
     @Override
     public void close() {
         if (nonNull(producer)) {
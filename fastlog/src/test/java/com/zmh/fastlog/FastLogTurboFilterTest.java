@@ -0,0 +1,64 @@
+package com.zmh.fastlog;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.worker.log.LoggerRules;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author zmh
+ */
+public class FastLogTurboFilterTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+
+    private FilterReply decide(FastLogTurboFilter filter, String loggerName, Level level) {
+        return filter.decide(null, loggerContext.getLogger(loggerName), level, "hello", null, null);
+    }
+
+    @Test
+    public void decideTest() {
+        FastLogConfig config = new FastLogConfig();
+        config.setLoggerLevels("org.springframework:WARN");
+
+        FastLogTurboFilter filter = new FastLogTurboFilter();
+        filter.setEnable(true);
+        filter.setLoggerRules(new LoggerRules(config));
+
+        assertEquals(FilterReply.DENY, decide(filter, "org.apache.kafka.clients.NetworkClient", Level.DEBUG));
+        assertEquals(FilterReply.DENY, decide(filter, "org.springframework.beans.Factory", Level.INFO));
+        assertEquals(FilterReply.NEUTRAL, decide(filter, "org.springframework.beans.Factory", Level.WARN));
+        assertEquals(FilterReply.NEUTRAL, decide(filter, "com.zmh.Test", Level.DEBUG));
+
+        // fastlog关闭后不再过滤
+        filter.setLoggerRules(null);
+        assertEquals(FilterReply.NEUTRAL, decide(filter, "org.apache.kafka.clients.NetworkClient", Level.DEBUG));
+    }
+
+    @Test
+    public void disableTest() {
+        FastLogTurboFilter filter = new FastLogTurboFilter();
+        filter.setLoggerRules(new LoggerRules(new FastLogConfig()));
+        assertEquals(FilterReply.NEUTRAL, decide(filter, "org.apache.kafka.clients.NetworkClient", Level.DEBUG));
+    }
+
+    @Test
+    public void separateRulesTest() {
+        FastLogConfig config = new FastLogConfig();
+        config.setExcludeLoggers("com.zmh");
+        FastLogTurboFilter filter = new FastLogTurboFilter();
+        filter.setEnable(true);
+        filter.setLoggerRules(new LoggerRules(config));
+
+        // 另一个实例的规则不影响当前过滤器
+        FastLogConfig other = new FastLogConfig();
+        other.setExcludeLoggers("org.springframework");
+        new LoggerRules(other);
+
+        assertEquals(FilterReply.DENY, decide(filter, "com.zmh.Test", Level.INFO));
+        assertEquals(FilterReply.NEUTRAL, decide(filter, "org.springframework.beans.Factory", Level.INFO));
+    }
+}
@@ -0,0 +1,83 @@
+package com.zmh.fastlog.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void borrowSizeClassTest() {
+        try (BufferPool pool = new BufferPool(1 << 20)) {
+            assertEquals(2048, pool.borrow(10).length);
+            assertEquals(2048, pool.borrow(2048).length);
+            assertEquals(4096, pool.borrow(2049).length);
+            assertEquals(1 << 20, pool.borrow(1 << 20).length);
+            // 超过最大级别按实际大小申请
+            assertEquals((1 << 20) + 1, pool.borrow((1 << 20) + 1).length);
+            assertEquals(0, pool.getHitCount());
+            assertEquals(5, pool.getMissCount());
+        }
+    }
+
+    @Test
+    public void releaseAndBorrowTest() {
+        try (BufferPool pool = new BufferPool(1 << 20)) {
+            byte[] bytes = pool.borrow(3000);
+            pool.release(bytes);
+            assertEquals(4096, pool.getRetainedBytes());
+
+            assertSame(bytes, pool.borrow(4000));
+            assertEquals(0, pool.getRetainedBytes());
+            assertEquals(1, pool.getHitCount());
+            assertEquals(0.5, pool.getHitRate(), 0.001);
+        }
+    }
+
+    @Test
+    public void releaseIgnoreTest() {
+        try (BufferPool pool = new BufferPool(1 << 20)) {
+            // 不是级别大小的缓冲不入池
+            pool.release(new byte[3000]);
+            pool.release(new byte[1024]);
+            pool.release(new byte[2 << 20]);
+            assertEquals(0, pool.getRetainedBytes());
+        }
+        try (BufferPool pool = new BufferPool(0)) {
+            pool.release(new byte[4096]);
+            assertEquals(0, pool.getRetainedBytes());
+        }
+    }
+
+    @Test
+    public void retainedBytesLimitTest() {
+        try (BufferPool pool = new BufferPool(64 << 10)) {
+            for (int i = 0; i < 100; i++) {
+                pool.release(new byte[64 << 10]);
+            }
+            assertTrue(pool.getRetainedBytes() <= 64 << 10);
+        }
+    }
+
+    @Test
+    public void histogramTest() {
+        try (BufferPool pool = new BufferPool(64 << 10)) {
+            for (int i = 0; i < 100; i++) {
+                pool.record(3000);
+            }
+            // 重新分配后全部额度给4KB级别
+            pool.setMaxRetainedBytes(64 << 10);
+
+            pool.release(new byte[2048]);
+            assertEquals(0, pool.getRetainedBytes());
+
+            for (int i = 0; i < 20; i++) {
+                pool.release(new byte[4096]);
+            }
+            assertEquals(64 << 10, pool.getRetainedBytes());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.zmh.fastlog.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 期望值来自RFC 8949附录A
+ *
+ * @author zmh
+ */
+public class CborByteBuilderTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] toBytes(CborByteBuilder builder) {
+        return Arrays.copyOf(builder.array(), builder.pos());
+    }
+
+    @Test
+    public void numberTest() {
+        CborByteBuilder builder = CborByteBuilder.create().beginMap()
+            .value(0).value(23).value(24).value(1000).value(1000000).value(1000000000000L)
+            .value(-1).value(-1000)
+            .endMap();
+        assertArrayEquals(bytes(0xbf,
+            0x00, 0x17, 0x18, 0x18, 0x19, 0x03, 0xe8, 0x1a, 0x00, 0x0f, 0x42, 0x40,
+            0x1b, 0x00, 0x00, 0x00, 0xe8, 0xd4, 0xa5, 0x10, 0x00,
+            0x20, 0x39, 0x03, 0xe7,
+            0xff), toBytes(builder));
+    }
+
+    @Test
+    public void stringTest() {
+        String nullValue = null;
+        CborByteBuilder builder = CborByteBuilder.create().beginMap()
+            .key("a").value("IETF")
+            .key(1).value("ü水")
+            .key(2).value(nullValue)
+            .endMap();
+        assertArrayEquals(bytes(0xbf,
+            0x61, 0x61, 0x64, 0x49, 0x45, 0x54, 0x46,
+            0x01, 0x65, 0xc3, 0xbc, 0xe6, 0xb0, 0xb4,
+            0x02, 0xf6,
+            0xff), toBytes(builder));
+    }
+
+    @Test
+    public void streamStringTest() {
+        // 分段写入, 代理字符对被分在两段中, 超过最大长度截取
+        CborByteBuilder builder = CborByteBuilder.create().beginMap(new byte[1])
+            .beginString(4)
+            .appendString("a\ud800")
+            .appendString("\udd51bc")
+            .endString()
+            .endMap();
+        assertArrayEquals(bytes(0xbf, 0x66, 0x61, 0xf0, 0x90, 0x85, 0x91, 0x62, 0xff), toBytes(builder));
+    }
+}
@@ -0,0 +1,86 @@
+package com.zmh.fastlog.utils;
+
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class DirectSlabTest {
+
+    @Test
+    public void allocateTest() {
+        DirectSlab slab = new DirectSlab(16, 4);
+        Set<Integer> blocks = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            blocks.add(slab.allocate());
+        }
+        assertEquals(4, blocks.size());
+        // 没有空闲块
+        assertEquals(-1, slab.allocate());
+        assertEquals(0, slab.freeCount());
+
+        slab.free(2);
+        assertEquals(1, slab.freeCount());
+        assertEquals(2, slab.allocate());
+    }
+
+    @Test
+    public void readWriteTest() {
+        DirectSlab slab = new DirectSlab(16, 4);
+        int block = slab.allocate();
+        byte[] bytes = "hello world".getBytes();
+        slab.write(block, bytes, bytes.length);
+
+        byte[] dest = new byte[bytes.length];
+        slab.read(block, dest, bytes.length);
+        assertArrayEquals(bytes, dest);
+
+        ByteBuffer buffer = slab.slice(block, bytes.length);
+        assertEquals(0, buffer.position());
+        assertEquals(bytes.length, buffer.remaining());
+        assertEquals('h', buffer.get(0));
+    }
+
+    @Test
+    @SneakyThrows
+    public void concurrentTest() {
+        int blockCount = 64;
+        DirectSlab slab = new DirectSlab(8, blockCount);
+        // 同一个块同时只能被一个线程持有
+        AtomicIntegerArray owners = new AtomicIntegerArray(blockCount);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        int block = slab.allocate();
+                        if (block < 0) {
+                            continue;
+                        }
+                        assertTrue(owners.compareAndSet(block, 0, 1));
+                        assertTrue(owners.compareAndSet(block, 1, 0));
+                        slab.free(block);
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(blockCount, slab.freeCount());
+    }
+}
@@ -86,4 +86,28 @@ public class JsonByteBuilderTest { //todo zmh 加一个ensure的单元测试
 
         assertEquals("{\"key1\":\"2022-12-01 01:00:01.000\",\"key2\":\"2022-01-01 01:00:01.111\"}", json);
     }
+
+    @Test
+    public void testTimestamp() {
+        Calendar calendar1 = new Calendar.Builder().build();
+        calendar1.setTimeInMillis(1669827601000L);
+        Calendar calendar2 = new Calendar.Builder().build();
+        calendar2.setTimeInMillis(1640970001111L);
+
+        String expect = JsonByteBuilder.create()
+            .beginObject()
+            .key("key1").value(calendar1)
+            .key("key2").value(calendar2)
+            .endObject()
+            .toString();
+
+        String json = JsonByteBuilder.create()
+            .beginObject()
+            .key("key1").timestamp(1669827601000L)
+            .key("key2").timestamp(1640970001111L)
+            .endObject()
+            .toString();
+
+        assertEquals(expect, json);
+    }
 }
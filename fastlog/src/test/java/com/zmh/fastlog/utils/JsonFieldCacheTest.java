@@ -0,0 +1,63 @@
+package com.zmh.fastlog.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonFieldCacheTest {
+
+    @Test
+    public void sameAsKeyValueTest() {
+        JsonFieldCache cache = new JsonFieldCache("logger", 16);
+        String[] values = {"com.zmh.fastlog", "thread\"1\2", "the中文logger", null};
+        for (String value : values) {
+            String expect = JsonByteBuilder.create()
+                .beginObject()
+                .key("logger").value(value)
+                .endObject()
+                .toString();
+            // 第一次编码并放入缓存, 第二次直接使用缓存
+            for (int i = 0; i < 2; i++) {
+                String json = JsonByteBuilder.create()
+                    .beginObject()
+                    .field(cache, value)
+                    .endObject()
+                    .toString();
+                assertEquals(expect, json);
+            }
+        }
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void evictTest() {
+        JsonFieldCache cache = new JsonFieldCache("thread", 2);
+        byte[] first = cache.get("thread-1");
+        assertNotNull(cache.get("thread-2"));
+        // 上一代中再次用到的值移回当前一代, 不重新编码
+        assertSame(first, cache.get("thread-1"));
+        // thread-2没有再用到, 随上一代丢弃
+        assertNotNull(cache.get("thread-3"));
+        assertEquals(2, cache.size());
+        assertNotSame(first, cache.get("thread-2"));
+
+        String json = JsonByteBuilder.create()
+            .beginObject()
+            .field(cache, "thread-2")
+            .endObject()
+            .toString();
+        assertEquals("{\"thread\":\"thread-2\"}", json);
+    }
+
+    @Test
+    public void boundedTest() {
+        JsonFieldCache cache = new JsonFieldCache("thread", 16);
+        for (int i = 0; i < 10000; i++) {
+            assertNotNull(cache.get("pool-" + i + "-thread-1"));
+            assertTrue(cache.size() <= 16);
+        }
+        // 新出现的值仍然会被缓存
+        byte[] bytes = cache.get("pool-10000-thread-1");
+        assertSame(bytes, cache.get("pool-10000-thread-1"));
+    }
+}
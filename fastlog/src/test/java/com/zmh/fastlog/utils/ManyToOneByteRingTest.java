@@ -0,0 +1,129 @@
+package com.zmh.fastlog.utils;
+
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class ManyToOneByteRingTest {
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    public void writeAndReadTest() {
+        ManyToOneByteRing ring = new ManyToOneByteRing(1024);
+        assertTrue(ring.write(bytes(10, 1), 0, 10));
+        assertTrue(ring.write(bytes(3, 2), 0, 3));
+        // 按8字节对齐
+        assertEquals(16 + 8, ring.size());
+
+        List<byte[]> records = new ArrayList<>();
+        int count = ring.read((buffer, offset, length) -> records.add(Arrays.copyOfRange(buffer, offset, offset + length)), 10);
+        assertEquals(2, count);
+        assertArrayEquals(bytes(10, 1), records.get(0));
+        assertArrayEquals(bytes(3, 2), records.get(1));
+        assertEquals(0, ring.size());
+
+        assertEquals(0, ring.read((buffer, offset, length) -> fail(), 10));
+    }
+
+    @Test
+    public void rejectTest() {
+        ManyToOneByteRing ring = new ManyToOneByteRing(256);
+        assertEquals(32, ring.maxRecordLength());
+        assertFalse(ring.write(bytes(33, 1), 0, 33));
+        assertFalse(ring.write(bytes(1, 1), 0, 0));
+
+        // 写满之后拒绝, 读取释放空间后可以继续写入
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ring.write(bytes(32, i), 0, 32));
+        }
+        assertFalse(ring.write(bytes(1, 1), 0, 1));
+        assertEquals(1, ring.read((buffer, offset, length) -> assertEquals(0, buffer[offset]), 1));
+        assertTrue(ring.write(bytes(32, 8), 0, 32));
+    }
+
+    @Test
+    public void wrapTest() {
+        ManyToOneByteRing ring = new ManyToOneByteRing(256);
+        List<Integer> values = new ArrayList<>();
+        ManyToOneByteRing.RecordHandler handler = (buffer, offset, length) -> {
+            assertEquals(24, length);
+            values.add((int) buffer[offset + length - 1]);
+        };
+        // 24字节的记录在末尾放不下时写入填充记录, 从头部开始
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ring.write(bytes(24, i), 0, 24));
+            if (i % 3 == 2) {
+                ring.read(handler, 10);
+            }
+        }
+        ring.read(handler, 10);
+        ring.read(handler, 10);
+        assertEquals(100, values.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) values.get(i));
+        }
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    @SneakyThrows
+    public void concurrentTest() {
+        ManyToOneByteRing ring = new ManyToOneByteRing(4096);
+        int threads = 4;
+        int perThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                ByteBuffer record = ByteBuffer.allocate(64);
+                for (int i = 0; i < perThread; i++) {
+                    // 长度在8到64之间变化, 内容是线程号和序号
+                    int length = 8 + i % 57;
+                    record.clear();
+                    record.putInt(thread).putInt(i);
+                    while (!ring.write(record.array(), 0, length)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        int[] next = new int[threads];
+        int total = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (total < threads * perThread && System.currentTimeMillis() < deadline) {
+            total += ring.read((buffer, offset, length) -> {
+                ByteBuffer record = ByteBuffer.wrap(buffer, offset, length);
+                int thread = record.getInt();
+                int i = record.getInt();
+                // 每个生产者的记录按写入顺序读出
+                assertEquals(next[thread]++, i);
+                assertEquals(8 + i % 57, length);
+            }, 128);
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(threads * perThread, total);
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.zmh.fastlog.utils;
+
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class ParkingSignalTest {
+
+    @Test
+    public void timeoutTest() {
+        ParkingSignal signal = new ParkingSignal();
+        long start = System.nanoTime();
+        assertFalse(signal.await(signal.version(), MILLISECONDS.toNanos(10)));
+        assertTrue(System.nanoTime() - start >= MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void missedSignalTest() {
+        ParkingSignal signal = new ParkingSignal();
+        long version = signal.version();
+        // 取version之后的通知不会错过
+        signal.signalAll();
+        assertTrue(signal.await(version, SECONDS.toNanos(10)));
+    }
+
+    @Test
+    @SneakyThrows
+    public void wakeUpTest() {
+        ParkingSignal signal = new ParkingSignal();
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean signalled = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            long version = signal.version();
+            started.countDown();
+            signalled.set(signal.await(version, SECONDS.toNanos(10)));
+        });
+        waiter.start();
+        started.await();
+
+        long start = System.nanoTime();
+        signal.signalAll();
+        waiter.join(SECONDS.toMillis(10));
+        // 立即被唤醒, 不需要等到超时
+        assertTrue(signalled.get());
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,76 @@
+package com.zmh.fastlog.utils;
+
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampEncoderTest {
+
+    private static String encode(TimestampEncoder encoder, long millis) {
+        byte[] bytes = new byte[TimestampEncoder.MAX_LENGTH];
+        int pos = encoder.write(millis, bytes, 0);
+        return new String(bytes, 0, pos);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String encode(Calendar calendar, long millis) {
+        calendar.setTimeInMillis(millis);
+        String json = JsonByteBuilder.create()
+            .beginObject()
+            .key("k").value(calendar)
+            .endObject()
+            .toString();
+        return json.substring(5, json.length() - 1);
+    }
+
+    @Test
+    public void sameAsCalendarTest() {
+        // 包含夏令时切换的时区
+        for (String zone : new String[]{"Asia/Shanghai", "America/New_York", "Asia/Kolkata"}) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            TimestampEncoder encoder = new TimestampEncoder(timeZone);
+            Calendar calendar = new Calendar.Builder().setTimeZone(timeZone).build();
+
+            Random random = new Random(1);
+            long millis = 1640970001111L;
+            for (int i = 0; i < 100_000; i++) {
+                millis += random.nextInt(100_000);
+                assertEquals(encode(calendar, millis), encode(encoder, millis));
+            }
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void concurrencyTest() {
+        TimestampEncoder encoder = new TimestampEncoder(TimeZone.getDefault());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                Calendar calendar = new Calendar.Builder().build();
+                for (int i = 0; i < 100_000; i++) {
+                    // 多个线程在相邻的几秒之间来回切换, 反复替换缓存的前缀
+                    long millis = 1640970001111L + random.nextInt(5000);
+                    assertEquals(encode(calendar, millis), encode(encoder, millis));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,126 @@
+package com.zmh.fastlog.worker;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.TimeoutHandler;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.zmh.fastlog.utils.ThreadUtils.namedDaemonThreadFactory;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author zmh
+ */
+public class WaitStrategiesTest {
+
+    private static final String[] NAMES = {"blocking", "yielding", "busy-spin", "phased", "adaptive"};
+
+    private static class Handler implements EventHandler<long[]>, TimeoutHandler {
+        private final CountDownLatch events;
+        private final CountDownLatch timeouts = new CountDownLatch(1);
+
+        private Handler(int count) {
+            this.events = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onEvent(long[] event, long sequence, boolean endOfBatch) {
+            events.countDown();
+        }
+
+        @Override
+        public void onTimeout(long sequence) {
+            timeouts.countDown();
+        }
+    }
+
+    @SneakyThrows
+    private void run(WaitStrategy waitStrategy, boolean expectTimeout) {
+        int count = 10000;
+        Handler handler = new Handler(count);
+        Disruptor<long[]> disruptor = new Disruptor<>(() -> new long[1], 1024,
+            namedDaemonThreadFactory("wait-strategy-test"), ProducerType.SINGLE, waitStrategy);
+        disruptor.handleEventsWith(handler);
+        RingBuffer<long[]> ringBuffer = disruptor.start();
+        try {
+            for (int i = 0; i < count; i++) {
+                ringBuffer.publishEvent((event, sequence) -> event[0] = sequence);
+            }
+            assertTrue(handler.events.await(1, TimeUnit.SECONDS));
+            if (expectTimeout) {
+                // 空闲后回调onTimeout
+                assertTrue(handler.timeouts.await(1, TimeUnit.SECONDS));
+            }
+        } finally {
+            disruptor.shutdown();
+        }
+    }
+
+    @Test
+    public void strategiesTest() {
+        for (String name : NAMES) {
+            run(WaitStrategies.create(name, 0, MILLISECONDS), false);
+            run(WaitStrategies.create(name, 10, MILLISECONDS), true);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidNameTest() {
+        WaitStrategies.create("sleeping", 0, MILLISECONDS);
+    }
+
+    @Test
+    @SneakyThrows
+    public void adaptiveTest() {
+        WaitStrategy fallback = new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier) {
+                return sequence;
+            }
+
+            @Override
+            public void signalAllWhenBlocking() {
+            }
+        };
+        AdaptiveWaitStrategy strategy = new AdaptiveWaitStrategy(fallback);
+        SequenceBarrier barrier = mock(SequenceBarrier.class);
+
+        // 自旋期间等到了日志, 自旋次数加倍
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, strategy.waitFor(0, null, availableAfter(10), barrier));
+        }
+        assertEquals(AdaptiveWaitStrategy.MIN_SPIN_TRIES << 2, strategy.getSpinTries());
+
+        // 空闲时自旋次数减半, 交给阻塞策略
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, strategy.waitFor(0, null, new Sequence(), barrier));
+        }
+        assertEquals(AdaptiveWaitStrategy.MIN_SPIN_TRIES, strategy.getSpinTries());
+    }
+
+    /**
+     * 前n次读取时还没有可用的日志
+     */
+    private static Sequence availableAfter(int n) {
+        return new Sequence() {
+            private int count;
+
+            @Override
+            public long get() {
+                return count++ < n ? -1 : 0;
+            }
+        };
+    }
+}
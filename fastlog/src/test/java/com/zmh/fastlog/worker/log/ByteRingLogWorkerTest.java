@@ -0,0 +1,131 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+import com.zmh.fastlog.model.message.LastConfirmedSeq;
+import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.mq.MqWorker;
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zmh.fastlog.utils.ThreadUtils.sleep;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author zmh
+ */
+public class ByteRingLogWorkerTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+
+    private ILoggingEvent getLoggingEvent(String message) {
+        return new LoggingEvent(
+            "com.zmh.fastlog.worker",
+            logger,
+            Level.INFO,
+            message,
+            null,
+            null
+        );
+    }
+
+    private FastLogConfig getConfig() {
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        return config;
+    }
+
+    @Test
+    public void startWithFileTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        FileWorker fileWorker = mock(FileWorker.class);
+        List<String> messages = new ArrayList<>();
+        when(fileWorker.enqueue(any())).then(invocation -> {
+            ByteData byteData = invocation.getArgument(0);
+            messages.add(new String(byteData.getData(), 0, byteData.getDataLength()));
+            return true;
+        });
+
+        try (ByteRingLogWorker logWorker = new ByteRingLogWorker(mqWorker, fileWorker, getConfig(), 64 << 10)) {
+            verify(mqWorker).registerLogWorker(logWorker);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(logWorker.enqueue(getLoggingEvent("message " + i)));
+            }
+            verify(fileWorker, timeout(1000).times(100)).enqueue(any());
+            verify(mqWorker, never()).enqueue(any());
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(messages.get(i).contains("\"message " + i + "\""));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void switchToMqTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        when(mqWorker.enqueue(any())).thenReturn(true);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        try (ByteRingLogWorker logWorker = new ByteRingLogWorker(mqWorker, fileWorker, getConfig(), 64 << 10)) {
+            // 初始id为0, mq确认之后切换到mq
+            assertTrue(logWorker.enqueue(new LastConfirmedSeq(0)));
+            logWorker.enqueue(getLoggingEvent("hello world"));
+
+            verify(mqWorker, timeout(500)).enqueue(any());
+            sleep(100);
+            verify(fileWorker, never()).enqueue(any());
+        }
+    }
+
+    @Test
+    public void highWaterLevelInBytesTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        FileWorker fileWorker = mock(FileWorker.class);
+
+        try (ByteRingLogWorker logWorker = new ByteRingLogWorker(mqWorker, fileWorker, getConfig(), 64 << 10)) {
+            assertEquals((int) ((64 << 10) * 0.8), logWorker.getHighWaterLevelMq());
+        }
+    }
+
+    @Test
+    public void dropWhenFullTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        FileWorker fileWorker = mock(FileWorker.class);
+        // 文件缓冲区阻塞, 消费线程停在第一条日志上
+        AtomicBoolean blocking = new AtomicBoolean(true);
+        when(fileWorker.enqueue(any())).then(invocation -> {
+            while (blocking.get()) {
+                sleep(1);
+            }
+            return true;
+        });
+
+        FastLogConfig config = getConfig();
+        config.setOverflowPolicy("dropNewest");
+
+        try (ByteRingLogWorker logWorker = new ByteRingLogWorker(mqWorker, fileWorker, config, 4 << 10)) {
+            int success = 0;
+            for (int i = 0; i < 200; i++) {
+                if (logWorker.enqueue(getLoggingEvent("hello world"))) {
+                    success++;
+                }
+            }
+            assertTrue(success < 200);
+            assertEquals(200 - success, logWorker.logMissingCount.getTotalMissingCount());
+            blocking.set(false);
+        }
+    }
+}
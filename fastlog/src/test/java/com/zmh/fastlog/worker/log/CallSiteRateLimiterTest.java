@@ -0,0 +1,92 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class CallSiteRateLimiterTest {
+
+    @Test
+    public void burstAndRefillTest() {
+        try (CallSiteRateLimiter limiter = new CallSiteRateLimiter(10, 5, 60, event -> true)) {
+            long now = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            }
+            assertFalse(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            // 不同的模板、不同的logger各自计数
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "world {}", now));
+            assertTrue(limiter.tryAcquire("com.zmh.Other", "hello {}", now));
+
+            // 每100ms补充一个
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now + MILLISECONDS.toNanos(100)));
+            assertFalse(limiter.tryAcquire("com.zmh.Test", "hello {}", now + MILLISECONDS.toNanos(150)));
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now + MILLISECONDS.toNanos(200)));
+        }
+    }
+
+    @Test
+    public void summaryTest() {
+        List<ILoggingEvent> summaries = new ArrayList<>();
+        try (CallSiteRateLimiter limiter = new CallSiteRateLimiter(1, 1, 60, summaries::add)) {
+            long now = System.nanoTime();
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            for (int i = 0; i < 7; i++) {
+                assertFalse(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            }
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "world", now));
+
+            limiter.summary();
+            assertEquals(1, summaries.size());
+            ILoggingEvent summary = summaries.get(0);
+            assertEquals(CallSiteRateLimiter.SUMMARY_LOGGER, summary.getLoggerName());
+            assertEquals(Level.WARN, summary.getLevel());
+            assertTrue(summary.getFormattedMessage().contains("rate limited 7 events"));
+            assertTrue(summary.getFormattedMessage().contains("hello {}"));
+
+            // 丢弃数已经清零
+            limiter.summary();
+            assertEquals(1, summaries.size());
+        }
+    }
+
+    @Test
+    public void summaryDroppedTest() {
+        // 日志缓冲区满, 汇总日志写入失败时不等待, 只计数
+        try (CallSiteRateLimiter limiter = new CallSiteRateLimiter(1, 1, 60, event -> false)) {
+            long now = System.nanoTime();
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            assertFalse(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+
+            limiter.summary();
+            assertEquals(1, limiter.summaryMissingCount.getTotalMissingCount());
+        }
+    }
+
+    @Test
+    public void pruneTest() {
+        try (CallSiteRateLimiter limiter = new CallSiteRateLimiter(10, 5, 60, event -> true)) {
+            long now = System.nanoTime();
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            assertTrue(limiter.tryAcquire("com.zmh.Other", "hello {}", now));
+            assertEquals(2, limiter.loggerCount());
+
+            // 整个周期都没有日志, 调用点和logger一起清理
+            limiter.summary(now + SECONDS.toNanos(120));
+            assertEquals(0, limiter.loggerCount());
+
+            assertTrue(limiter.tryAcquire("com.zmh.Test", "hello {}", now));
+            assertEquals(1, limiter.loggerCount());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.pattern.CallerDataConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.zmh.fastlog.utils.JsonByteBuilder;
+import org.junit.Test;
+import org.slf4j.spi.LocationAwareLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author zmh
+ */
+public class CallerEncoderTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+
+    private static void assertSame(CallerEncoder encoder, ILoggingEvent event) {
+        String expect = JsonByteBuilder.create()
+            .beginObject()
+            .key("caller").value(new CallerDataConverter().convert(event))
+            .endObject()
+            .toString();
+
+        JsonByteBuilder builder = JsonByteBuilder.create().beginObject();
+        encoder.write(builder, event.getCallerData());
+        assertEquals(expect, builder.endObject().toString());
+    }
+
+    @Test
+    public void sameAsCallerDataConverterTest() {
+        CallerEncoder encoder = new CallerEncoder(1);
+        LoggingEvent event = new LoggingEvent("com.zmh.fastlog.worker", logger, Level.INFO, "hello world", null, null);
+        event.setCallerData(new Throwable().getStackTrace());
+        // 第一次编码并缓存, 第二次使用缓存, 超出缓存上限的栈帧直接编码
+        assertSame(encoder, event);
+        assertSame(encoder, event);
+        assertEquals(1, encoder.size());
+
+        event.setCallerData(new StackTraceElement[0]);
+        assertSame(encoder, event);
+    }
+
+    private List<StackTraceElement[]> locateOnAppend(Consumer<ILoggingEvent> locator) {
+        List<StackTraceElement[]> callerData = new ArrayList<>();
+        AppenderBase<ILoggingEvent> appender = new AppenderBase<ILoggingEvent>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                locator.accept(event);
+                callerData.add(event.getCallerData());
+            }
+        };
+        appender.setContext(loggerContext);
+        appender.start();
+        logger.addAppender(appender);
+        return callerData;
+    }
+
+    @Test
+    public void locateTest() {
+        List<StackTraceElement[]> callerData = locateOnAppend(CallerLocator::locate);
+
+        logger.info("hello world");
+
+        StackTraceElement[] steArray = callerData.get(0);
+        assertEquals(CallerEncoder.CALLER_DEPTH, steArray.length);
+        assertEquals(CallerEncoderTest.class.getName(), steArray[0].getClassName());
+        assertEquals("locateTest", steArray[0].getMethodName());
+    }
+
+    /**
+     * 通过LocationAwareLogger传入自己类名的日志封装
+     */
+    private static class LogWrapper {
+        static void info(Logger logger, String msg) {
+            logger.log(null, LogWrapper.class.getName(), LocationAwareLogger.INFO_INT, msg, null, null);
+        }
+    }
+
+    /**
+     * 通过frameworkPackages声明的日志封装
+     */
+    private static class PackageLogWrapper {
+        static void info(Logger logger, String msg) {
+            logger.info(msg);
+        }
+    }
+
+    @Test
+    public void locateWithFqnTest() {
+        List<StackTraceElement[]> callerData = locateOnAppend(CallerLocator::locate);
+
+        LogWrapper.info(logger, "hello world");
+
+        StackTraceElement[] steArray = callerData.get(0);
+        assertEquals(CallerEncoderTest.class.getName(), steArray[0].getClassName());
+        assertEquals("locateWithFqnTest", steArray[0].getMethodName());
+    }
+
+    @Test
+    public void locateWithFrameworkPackagesTest() {
+        loggerContext.getFrameworkPackages().add(PackageLogWrapper.class.getName());
+        List<StackTraceElement[]> callerData = locateOnAppend(event -> CallerLocator.locate(event, loggerContext.getFrameworkPackages()));
+
+        PackageLogWrapper.info(logger, "hello world");
+
+        StackTraceElement[] steArray = callerData.get(0);
+        assertEquals(CallerEncoderTest.class.getName(), steArray[0].getClassName());
+        assertEquals("locateWithFrameworkPackagesTest", steArray[0].getMethodName());
+    }
+}
@@ -0,0 +1,50 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zmh
+ */
+public class CborMessageConverterTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+
+    @Test
+    public void createTest() {
+        FastLogConfig config = new FastLogConfig();
+        assertTrue(EventEncoder.create(config) instanceof MessageConverter);
+        config.setEventEncoder("cbor");
+        assertTrue(EventEncoder.create(config) instanceof CborMessageConverter);
+        config.setEventEncoder(CborMessageConverter.class.getName());
+        assertTrue(EventEncoder.create(config) instanceof CborMessageConverter);
+    }
+
+    @Test
+    public void smallerThanJsonTest() {
+        LoggingEvent event = new LoggingEvent(
+            "com.zmh.fastlog.worker",
+            logger,
+            Level.INFO,
+            "hello {}, \"quoted\"",
+            new RuntimeException("error"),
+            new Object[]{"world"}
+        );
+        FastLogConfig config = new FastLogConfig();
+        config.setMaxMsgSize(10240);
+
+        ByteData json = new ByteData();
+        new MessageConverter(config).convertToByteData(event, json, Long.MAX_VALUE);
+        ByteData cbor = new ByteData();
+        new CborMessageConverter(config).convertToByteData(event, cbor, Long.MAX_VALUE);
+
+        assertTrue(cbor.getDataLength() < json.getDataLength());
+    }
+}
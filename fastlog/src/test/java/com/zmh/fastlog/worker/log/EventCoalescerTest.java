@@ -0,0 +1,121 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.ByteData;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class EventCoalescerTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+    private final MessageConverter converter = new MessageConverter(new FastLogConfig());
+
+    private LoggingEvent event(Level level, String message, Object... args) {
+        return new LoggingEvent("com.zmh.fastlog.worker", logger, level, message, null, args);
+    }
+
+    private ByteData encode(LoggingEvent event) {
+        ByteData byteData = new ByteData();
+        converter.convertToByteData(event, byteData, 1);
+        return byteData;
+    }
+
+    private static String toString(ByteData byteData) {
+        return new String(byteData.getData(), 0, byteData.getDataLength());
+    }
+
+    @Test
+    public void fingerprintTest() {
+        long fingerprint = EventCoalescer.fingerprint(event(Level.INFO, "retry {}", 1));
+        // 按格式化后的消息计算
+        assertEquals(fingerprint, EventCoalescer.fingerprint(event(Level.INFO, "retry 1")));
+        assertNotEquals(fingerprint, EventCoalescer.fingerprint(event(Level.INFO, "retry {}", 2)));
+        assertNotEquals(fingerprint, EventCoalescer.fingerprint(event(Level.WARN, "retry {}", 1)));
+    }
+
+    private static boolean offer(EventCoalescer coalescer, long fingerprint, long timestamp, LoggingEvent event, ByteData byteData) {
+        return coalescer.offer(fingerprint, timestamp, event.getLoggerName(), event.getFormattedMessage(), byteData);
+    }
+
+    private boolean offer(EventCoalescer coalescer, long fingerprint, long timestamp, String message) {
+        LoggingEvent event = event(Level.INFO, message);
+        return offer(coalescer, fingerprint, timestamp, event, encode(event));
+    }
+
+    @Test
+    public void coalesceTest() {
+        EventCoalescer coalescer = new EventCoalescer(1000);
+        long fingerprint = EventCoalescer.fingerprint(event(Level.INFO, "retry"));
+
+        // 第一条照常发送
+        assertFalse(offer(coalescer, fingerprint, 100, "retry"));
+        assertNull(coalescer.drain(converter));
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(offer(coalescer, fingerprint, 100 + i, "retry"));
+        }
+        assertTrue(coalescer.hasPending());
+
+        // 不同的日志开始新的一组, 之前的重复日志合并为一条, firstTs是第一条日志的时间
+        assertFalse(offer(coalescer, fingerprint + 1, 200, "done"));
+        ByteData coalesced = coalescer.drain(converter);
+        assertNotNull(coalesced);
+        String json = toString(coalesced);
+        assertTrue(json.contains("\"message\":\"retry\""));
+        assertTrue(json.endsWith(",\"repeat\":3,\"firstTs\":100,\"lastTs\":103}"));
+        assertFalse(coalescer.hasPending());
+        assertNull(coalescer.drain(converter));
+    }
+
+    @Test
+    public void windowTest() {
+        EventCoalescer coalescer = new EventCoalescer(1000);
+        assertFalse(offer(coalescer, 1, 0, "retry"));
+        assertTrue(offer(coalescer, 1, 999, "retry"));
+        // 超过窗口后重新开始一组, 上一组的firstTs不受影响
+        assertFalse(offer(coalescer, 1, 1000, "retry"));
+        assertTrue(toString(coalescer.drain(converter)).endsWith("\"repeat\":1,\"firstTs\":0,\"lastTs\":999}"));
+        assertTrue(offer(coalescer, 1, 1001, "retry"));
+        // 没有计算指纹的日志不合并
+        assertFalse(offer(coalescer, 0, 1002, "retry"));
+        assertFalse(offer(coalescer, 0, 1002, "retry"));
+    }
+
+    @Test
+    public void fingerprintCollisionTest() {
+        // "Aa"和"BB"的hashCode和长度都相同, 指纹冲突
+        LoggingEvent first = event(Level.INFO, "Aa");
+        LoggingEvent second = event(Level.INFO, "BB");
+        long fingerprint = EventCoalescer.fingerprint(first);
+        assertEquals(fingerprint, EventCoalescer.fingerprint(second));
+
+        EventCoalescer coalescer = new EventCoalescer(1000);
+        assertFalse(offer(coalescer, fingerprint, 100, first, encode(first)));
+        // 消息不同, 不能合并
+        assertFalse(offer(coalescer, fingerprint, 101, second, encode(second)));
+        assertFalse(coalescer.hasPending());
+        assertTrue(offer(coalescer, fingerprint, 102, second, encode(second)));
+    }
+
+    @Test
+    public void cborTest() {
+        CborMessageConverter cbor = new CborMessageConverter(new FastLogConfig());
+        ByteData byteData = new ByteData();
+        cbor.convertToByteData(event(Level.INFO, "retry"), byteData, 1);
+        int length = byteData.getDataLength();
+
+        cbor.appendRepeat(byteData, 3, 101, 103);
+        byte[] data = byteData.getData();
+        // 3个1字节的key, 值分别占1、2、2个字节, 仍然以break结尾
+        assertEquals(length + 8, byteData.getDataLength());
+        assertEquals(CborMessageConverter.Keys.KEY_REPEAT, data[length - 1]);
+        assertEquals((byte) 0xff, data[byteData.getDataLength() - 1]);
+    }
+}
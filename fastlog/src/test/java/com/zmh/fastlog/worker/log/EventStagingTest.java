@@ -0,0 +1,123 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zmh.fastlog.utils.ThreadUtils.sleep;
+import static org.apache.pulsar.shade.org.apache.commons.lang3.reflect.FieldUtils.readField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author zmh
+ */
+public class EventStagingTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+
+    private final List<Integer> batchSizes = new ArrayList<>();
+
+    private ILoggingEvent getLoggingEvent(Level level) {
+        return new LoggingEvent(
+            "com.zmh.fastlog.worker",
+            logger,
+            level,
+            "hello world",
+            null,
+            null
+        );
+    }
+
+    private synchronized void publish(ILoggingEvent[] events, int size) {
+        batchSizes.add(size);
+    }
+
+    private synchronized boolean tryPublish(ILoggingEvent[] events, int size) {
+        batchSizes.add(size);
+        return true;
+    }
+
+    private synchronized List<Integer> getBatchSizes() {
+        return new ArrayList<>(batchSizes);
+    }
+
+    @Test
+    public void batchSizeTest() {
+        try (EventStaging staging = new EventStaging(4, 1000_000, this::publish, this::tryPublish)) {
+            for (int i = 0; i < 9; i++) {
+                staging.add(getLoggingEvent(Level.INFO));
+            }
+            assertEquals(2, getBatchSizes().size());
+            assertEquals(4, (int) getBatchSizes().get(0));
+        }
+        // 关闭时写入剩余的日志
+        assertEquals(1, (int) getBatchSizes().get(2));
+    }
+
+    @Test
+    public void warnFlushTest() {
+        try (EventStaging staging = new EventStaging(16, 1000_000, this::publish, this::tryPublish)) {
+            staging.add(getLoggingEvent(Level.INFO));
+            staging.add(getLoggingEvent(Level.WARN));
+            assertEquals(1, getBatchSizes().size());
+            assertEquals(2, (int) getBatchSizes().get(0));
+        }
+    }
+
+    @Test
+    public void deadlineFlushTest() {
+        try (EventStaging staging = new EventStaging(16, 1000, this::publish, this::tryPublish)) {
+            staging.add(getLoggingEvent(Level.INFO));
+            // 没有后续日志, 由定时任务写入
+            sleep(100);
+            assertEquals(1, getBatchSizes().size());
+            assertEquals(1, (int) getBatchSizes().get(0));
+        }
+    }
+
+    @Test
+    public void deadlineFlushWhenFullTest() {
+        AtomicBoolean full = new AtomicBoolean(true);
+        try (EventStaging staging = new EventStaging(16, 1000, this::publish,
+            (events, size) -> !full.get() && tryPublish(events, size))) {
+            staging.add(getLoggingEvent(Level.INFO));
+            // 缓冲区满时定时任务不等待, 日志留在暂存区
+            sleep(50);
+            assertEquals(0, getBatchSizes().size());
+
+            full.set(false);
+            sleep(50);
+            assertEquals(1, getBatchSizes().size());
+            assertEquals(1, (int) getBatchSizes().get(0));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void idleTest() {
+        try (EventStaging staging = new EventStaging(16, 1000, this::publish, this::tryPublish)) {
+            // 没有暂存的日志时不安排检查
+            assertFalse(((AtomicBoolean) readField(staging, "flushArmed", true)).get());
+
+            staging.add(getLoggingEvent(Level.INFO));
+            sleep(50);
+            assertEquals(1, getBatchSizes().size());
+            // 写入后暂存区为空, 不再安排下一次检查
+            assertFalse(((AtomicBoolean) readField(staging, "flushArmed", true)).get());
+
+            // 再次暂存时重新安排
+            staging.add(getLoggingEvent(Level.INFO));
+            sleep(50);
+            assertEquals(2, getBatchSizes().size());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class HeadSamplerTest {
+
+    private static LoggingEvent event(Level level, String traceId) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName("com.zmh.fastlog.Test");
+        event.setLevel(level);
+        event.setMessage("hello");
+        event.setMDCPropertyMap(null == traceId ? Collections.emptyMap() : Collections.singletonMap("traceId", traceId));
+        return event;
+    }
+
+    @Test
+    public void createTest() {
+        FastLogConfig config = new FastLogConfig();
+        assertNull(HeadSampler.create(config));
+        config.setHeadSamplingRate(0.5);
+        assertNotNull(HeadSampler.create(config));
+        config.setHeadSamplingTraceKey("");
+        assertNull(HeadSampler.create(config));
+    }
+
+    @Test
+    public void rateTest() {
+        HeadSampler sampler = new HeadSampler("traceId", 0.25);
+        int count = 100000;
+        int sampled = 0;
+        for (int i = 0; i < count; i++) {
+            String traceId = "trace-" + i;
+            boolean result = sampler.isSampled(traceId);
+            // 同一链路的决定总是相同的
+            assertEquals(result, new HeadSampler("traceId", 0.25).isSampled(traceId));
+            if (result) {
+                sampled++;
+            }
+        }
+        assertEquals(0.25, (double) sampled / count, 0.01);
+    }
+
+    @Test
+    public void alwaysKeepTest() {
+        HeadSampler sampler = new HeadSampler("traceId", 0);
+        assertFalse(sampler.isSampled(event(Level.INFO, "trace-1")));
+        assertFalse(sampler.isSampled(event(Level.WARN, "trace-1")));
+        assertTrue(sampler.isSampled(event(Level.ERROR, "trace-1")));
+        assertTrue(sampler.isSampled(event(Level.INFO, null)));
+    }
+}
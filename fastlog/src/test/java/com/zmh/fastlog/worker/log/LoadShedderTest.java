@@ -0,0 +1,64 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class LoadShedderTest {
+
+    @Test
+    public void progressiveShedTest() {
+        try (LoadShedder shedder = new LoadShedder("DEBUG:0.5, INFO:0.7, WARN:0.9", 100)) {
+            assertFalse(shedder.shouldShed(Level.DEBUG, 49));
+            assertTrue(shedder.shouldShed(Level.DEBUG, 50));
+            // 没有配置TRACE, 沿用DEBUG的比例
+            assertTrue(shedder.shouldShed(Level.TRACE, 50));
+            assertFalse(shedder.shouldShed(Level.INFO, 50));
+            assertTrue(shedder.shouldShed(Level.INFO, 70));
+            assertFalse(shedder.shouldShed(Level.WARN, 89));
+            assertTrue(shedder.shouldShed(Level.WARN, 90));
+            // 没有配置ERROR, 不丢弃
+            assertFalse(shedder.shouldShed(Level.ERROR, 100));
+
+            assertEquals(1, shedder.getShedCount(Level.TRACE));
+            assertEquals(1, shedder.getShedCount(Level.DEBUG));
+            assertEquals(1, shedder.getShedCount(Level.INFO));
+            assertEquals(1, shedder.getShedCount(Level.WARN));
+            assertEquals(0, shedder.getShedCount(Level.ERROR));
+        }
+    }
+
+    @Test
+    public void lowerLevelNeverLaterTest() {
+        // 低级别配置的比例比高级别大时, 按高级别的比例丢弃
+        try (LoadShedder shedder = new LoadShedder("DEBUG:0.9,INFO:0.6", 100)) {
+            assertTrue(shedder.shouldShed(Level.DEBUG, 60));
+            assertTrue(shedder.shouldShed(Level.INFO, 60));
+        }
+    }
+
+    @Test
+    public void createTest() {
+        assertNull(LoadShedder.create("", 100));
+        assertNull(LoadShedder.create(null, 100));
+        try {
+            LoadShedder.create("DEBUG", 100);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            LoadShedder.create("NONE:0.5", 100);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            LoadShedder.create("INFO:abc", 100);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
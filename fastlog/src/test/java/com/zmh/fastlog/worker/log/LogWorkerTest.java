@@ -6,14 +6,21 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import com.google.common.util.concurrent.RateLimiter;
+import com.zmh.fastlog.config.FastLogConfig;
 import com.zmh.fastlog.model.message.ByteData;
 import com.zmh.fastlog.model.message.LastConfirmedSeq;
 import com.zmh.fastlog.worker.file.FileWorker;
 import com.zmh.fastlog.worker.mq.MqWorker;
+import com.zmh.fastlog.worker.mq.producer.MqProducer;
 import lombok.SneakyThrows;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.zmh.fastlog.utils.ThreadUtils.sleep;
 import static org.apache.pulsar.shade.org.apache.commons.lang3.reflect.FieldUtils.writeField;
@@ -132,4 +139,286 @@ public class LogWorkerTest {
         }
     }
 
+    @Test
+    public void fileRetryTest() {
+        FileWorker fileWorker = mock(FileWorker.class);
+        // 文件缓冲区暂时写满, 之后恢复
+        when(fileWorker.enqueue(any())).thenReturn(false, false, true);
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, 128, 1024)) {
+            logWorker.enqueue(getLoggingEvent());
+            verify(fileWorker, timeout(500).times(3)).enqueue(any());
+            assertEquals(0, logWorker.fileMissingCount.getTotalMissingCount());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void dropNewestTest() {
+        CountDownLatch latch = new CountDownLatch(1);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenAnswer(msg -> {
+            // 模拟下游阻塞，日志缓冲区无法被消费
+            latch.await();
+            return true;
+        });
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setOverflowPolicy("dropNewest");
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, config)) {
+            int bufferSize = 128 << 5;
+            int failCount = 0;
+            for (int i = 0; i < bufferSize + 10; i++) {
+                if (!logWorker.enqueue(getLoggingEvent())) {
+                    failCount++;
+                }
+            }
+            assertEquals(10, failCount);
+            assertEquals(10, logWorker.logMissingCount.getTotalMissingCount());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void loadSheddingTest() {
+        CountDownLatch latch = new CountDownLatch(1);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenAnswer(msg -> {
+            // 模拟下游阻塞，日志缓冲区无法被消费
+            latch.await();
+            return true;
+        });
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setOverflowPolicy("dropNewest");
+        config.setLoadShedding("INFO:0.5");
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, config)) {
+            int bufferSize = 128 << 5;
+            int successCount = 0;
+            for (int i = 0; i < bufferSize; i++) {
+                if (logWorker.enqueue(getLoggingEvent())) {
+                    successCount++;
+                }
+            }
+            // 占用一半之后INFO被丢弃, 不计入缓冲区满的丢弃数
+            assertEquals(bufferSize / 2, successCount);
+            assertEquals(0, logWorker.logMissingCount.getTotalMissingCount());
+
+            // ERROR不丢弃
+            LoggingEvent error = new LoggingEvent("com.zmh.fastlog.worker", logger, Level.ERROR, "error", null, null);
+            assertTrue(logWorker.enqueue(error));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void encoderThreadsTest() {
+        int count = 1000;
+        CountDownLatch latch = new CountDownLatch(count);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenAnswer(msg -> {
+            ByteData byteData = msg.getArgument(0);
+            // 由编码线程序列化后才交给文件缓冲区
+            String json = new String(byteData.getData(), 0, byteData.getDataLength());
+            if (json.contains("\"message\":\"hello world\"")) {
+                latch.countDown();
+            }
+            return true;
+        });
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setEncoderThreads(2);
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, config)) {
+            for (int i = 0; i < count; i++) {
+                logWorker.enqueue(getLoggingEvent());
+            }
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void offHeapSlabTest() {
+        int count = 1000;
+        CountDownLatch latch = new CountDownLatch(count);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenAnswer(msg -> {
+            ByteData byteData = msg.getArgument(0);
+            byte[] bytes = new byte[byteData.getDataLength()];
+            byteData.copyTo(bytes);
+            if (byteData.isDirect() && new String(bytes).contains("\"message\":\"hello world\"")) {
+                latch.countDown();
+            }
+            // 模拟FileWorker写入文件缓冲区后归还
+            byteData.releaseSlab();
+            return true;
+        });
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setOffHeapSlabSize(1);
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, config)) {
+            for (int i = 0; i < count; i++) {
+                logWorker.enqueue(getLoggingEvent());
+            }
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void coalesceTest() {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenAnswer(msg -> {
+            ByteData byteData = msg.getArgument(0);
+            sent.add(new String(byteData.getData(), 0, byteData.getDataLength()));
+            return true;
+        });
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setCoalesceMillis(200);
+
+        try (LogWorker logWorker = new LogWorker(mock(MqWorker.class), fileWorker, config)) {
+            for (int i = 0; i < 100; i++) {
+                logWorker.enqueue(getLoggingEvent());
+            }
+            // 第一条照常发送, 之后的99条在缓冲区空闲后合并为一条
+            verify(fileWorker, timeout(1000).times(2)).enqueue(any());
+            assertTrue(sent.get(0).endsWith("}") && !sent.get(0).contains("\"repeat\""));
+            assertTrue(sent.get(1).contains("\"repeat\":99,"));
+
+            // 窗口已经结束, 重新开始一组, 不同的日志会立即结束上一组
+            logWorker.enqueue(getLoggingEvent());
+            logWorker.enqueue(getLoggingEvent());
+            logWorker.enqueue(new LoggingEvent("com.zmh.fastlog.worker", logger, Level.WARN, "other", null, null));
+            verify(fileWorker, timeout(100).times(5)).enqueue(any());
+            assertTrue(sent.get(3).contains("\"repeat\":1,"));
+            assertTrue(sent.get(4).contains("\"message\":\"other\""));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void fusedMqHandlerTest() {
+        AtomicInteger sent = new AtomicInteger();
+        MqWorker mqWorker = mock(MqWorker.class);
+        // 前5条发送成功, 之后mq阻塞, sendDirect不等待直接返回false
+        when(mqWorker.sendDirect(any())).thenAnswer(msg -> sent.incrementAndGet() <= 5);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(32);
+        config.setMaxMsgSize(1024);
+        config.setFusedMqHandler(true);
+
+        try (LogWorker logWorker = new LogWorker(mqWorker, fileWorker, config)) {
+            writeField(logWorker, "directWriteToMq", true, true);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(logWorker.enqueue(getLoggingEvent()));
+            }
+            // 第一次发送失败后, 这条日志和之后的日志按顺序写入本地文件缓冲区, 不再尝试mq
+            verify(fileWorker, timeout(1000).times(95)).enqueue(any());
+            verify(mqWorker, times(6)).sendDirect(any());
+            verify(mqWorker, timeout(1000).atLeastOnce()).flushDirect();
+            // 不再经过MqWorker的缓冲区
+            verify(mqWorker, never()).enqueue(any());
+        }
+    }
+
+    @Test(timeout = 10000)
+    @SneakyThrows
+    public void fusedMqNotReadyTest() {
+        MqProducer producer = mock(MqProducer.class);
+        when(producer.isReady()).thenReturn(false);
+        when(producer.trySendEvent(any())).thenCallRealMethod();
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(32);
+        config.setMaxMsgSize(1024);
+        config.setFusedMqHandler(true);
+        int bufferSize = config.getBatchMessageSize() << 5;
+
+        try (MqWorker mqWorker = new MqWorker(producer, 10);
+             LogWorker logWorker = new LogWorker(mqWorker, fileWorker, config)) {
+            writeField(logWorker, "directWriteToMq", true, true);
+            // mq未就绪时mq消费者不等待, 超过缓冲区大小的日志也不会阻塞业务线程
+            for (int i = 0; i < bufferSize * 2; i++) {
+                assertTrue(logWorker.enqueue(getLoggingEvent()));
+            }
+            verify(fileWorker, timeout(1000).times(bufferSize * 2)).enqueue(any());
+            verify(producer, never()).sendEvent(any());
+        }
+    }
+
+    private LogWorker drainWorker(MqWorker mqWorker, FileWorker fileWorker, boolean parallelDrain) {
+        when(mqWorker.enqueue(any())).thenReturn(true);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setParallelDrain(parallelDrain);
+        LogWorker logWorker = new LogWorker(mqWorker, fileWorker, config);
+
+        // 初始时先写入文件缓冲区, 日志id为1、2、3
+        for (int i = 0; i < 3; i++) {
+            logWorker.enqueue(getLoggingEvent());
+        }
+        verify(fileWorker, timeout(500).times(3)).enqueue(any());
+        return logWorker;
+    }
+
+    @Test
+    public void parallelDrainTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        FileWorker fileWorker = mock(FileWorker.class);
+
+        try (LogWorker logWorker = drainWorker(mqWorker, fileWorker, true)) {
+            // mq已经发出了文件中的第一条日志, 不等剩下的日志补发完就切换到mq
+            logWorker.onConfirmed(1);
+            logWorker.enqueue(getLoggingEvent());
+            verify(mqWorker, timeout(500)).enqueue(any());
+            verify(fileWorker, times(3)).enqueue(any());
+        }
+    }
+
+    @Test
+    public void drainBeforeSwitchTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        FileWorker fileWorker = mock(FileWorker.class);
+
+        try (LogWorker logWorker = drainWorker(mqWorker, fileWorker, false)) {
+            logWorker.onConfirmed(1);
+            logWorker.enqueue(getLoggingEvent());
+            verify(fileWorker, timeout(500).times(4)).enqueue(any());
+            verify(mqWorker, never()).enqueue(any());
+
+            // 文件中的日志全部发完才切换
+            logWorker.onConfirmed(4);
+            logWorker.enqueue(getLoggingEvent());
+            verify(mqWorker, timeout(500)).enqueue(any());
+            verify(fileWorker, times(4)).enqueue(any());
+        }
+    }
 }
@@ -0,0 +1,66 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class LoggerRulesTest {
+
+    @Test
+    public void builtInExcludeTest() {
+        LoggerRules rules = new LoggerRules("", "", "");
+        assertTrue(rules.isExclude("ch.qos.logback.core.FileAppender", Level.ERROR));
+        assertTrue(rules.isExclude("org.apache.kafka.clients.NetworkClient", Level.ERROR));
+        assertTrue(rules.isExclude("org.apache.pulsar.client.impl.ProducerImpl", Level.ERROR));
+        assertTrue(rules.isExclude(null, Level.ERROR));
+        assertFalse(rules.isExclude("com.zmh.fastlog.Test", Level.TRACE));
+        assertFalse(rules.isExclude("org.apache.commons.Test", Level.DEBUG));
+    }
+
+    @Test
+    public void includeExcludeTest() {
+        LoggerRules rules = new LoggerRules("com.zmh, org.apache.kafka.clients", "com.zmh.fastlog", "");
+        assertFalse(rules.isExclude("com.zmh.Test", Level.INFO));
+        // 更长的exclude前缀生效
+        assertTrue(rules.isExclude("com.zmh.fastlog.Test", Level.INFO));
+        // 没有匹配任何include前缀
+        assertTrue(rules.isExclude("org.springframework.Test", Level.INFO));
+        // 内置的排除优先于include
+        assertTrue(rules.isExclude("org.apache.kafka.clients.NetworkClient", Level.INFO));
+
+        LoggerRules nested = new LoggerRules("com.zmh.fastlog.worker", "com.zmh", "");
+        // 更长的include前缀生效
+        assertFalse(nested.isExclude("com.zmh.fastlog.worker.LogWorker", Level.INFO));
+        assertTrue(nested.isExclude("com.zmh.fastlog.FastLog", Level.INFO));
+    }
+
+    @Test
+    public void loggerLevelsTest() {
+        LoggerRules rules = new LoggerRules("", "", "org.springframework:WARN, org.springframework.web:INFO");
+        assertTrue(rules.isExclude("org.springframework.beans.Factory", Level.INFO));
+        assertFalse(rules.isExclude("org.springframework.beans.Factory", Level.WARN));
+        assertFalse(rules.isExclude("org.springframework.web.Servlet", Level.INFO));
+        assertTrue(rules.isExclude("org.springframework.web.Servlet", Level.DEBUG));
+        assertFalse(rules.isExclude("com.zmh.Test", Level.TRACE));
+    }
+
+    @Test
+    public void cacheTest() {
+        LoggerRules rules = new LoggerRules("", "com.zmh", "org.springframework:WARN");
+        // 第二次从缓存中获取, 结果一致
+        for (int i = 0; i < 2; i++) {
+            assertEquals(Integer.MAX_VALUE, rules.threshold("com.zmh.Test"));
+            assertEquals(Level.WARN_INT, rules.threshold("org.springframework.Test"));
+            assertEquals(Integer.MIN_VALUE, rules.threshold("io.netty.Test"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevelTest() {
+        new LoggerRules("", "", "com.zmh:NONE");
+    }
+}
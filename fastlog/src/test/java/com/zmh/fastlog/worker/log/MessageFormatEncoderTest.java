@@ -0,0 +1,57 @@
+package com.zmh.fastlog.worker.log;
+
+import com.zmh.fastlog.utils.JsonByteBuilder;
+import org.junit.Test;
+import org.slf4j.helpers.MessageFormatter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author zmh
+ */
+public class MessageFormatEncoderTest {
+
+    private static void assertSame(String pattern, Object[] args, int maxLength) {
+        String expect = JsonByteBuilder.create()
+            .beginObject()
+            .key("message").value(MessageFormatter.arrayFormat(pattern, args).getMessage(), maxLength)
+            .endObject()
+            .toString();
+
+        JsonByteBuilder builder = JsonByteBuilder.create()
+            .beginObject()
+            .key("message").beginString(maxLength);
+        MessageFormatEncoder.write(builder, pattern, args);
+        String json = builder.endString()
+            .endObject()
+            .toString();
+
+        assertEquals(expect, json);
+    }
+
+    @Test
+    public void formatTest() {
+        assertSame("hello {}, {}", new Object[]{"world", 1}, 10240);
+        assertSame("hello {}", new Object[]{null}, 10240);
+        assertSame("hello {} {}", new Object[]{"world"}, 10240);
+        assertSame("no placeholder", new Object[]{"world"}, 10240);
+        assertSame("array {}", new Object[]{new int[]{1, 2}}, 10240);
+        assertSame("exception {}", new Object[]{"x", new RuntimeException("e")}, 10240);
+    }
+
+    @Test
+    public void escapeTest() {
+        assertSame("escaped \\{} {}", new Object[]{"a"}, 10240);
+        assertSame("double escaped \\\\{}", new Object[]{"a"}, 10240);
+        assertSame("json \"{}\"\n", new Object[]{"va\"lue\t"}, 10240);
+    }
+
+    @Test
+    public void cutTest() {
+        assertSame("valuevalue{}", new Object[]{"中文中文"}, 11);
+        assertSame("{}{}", new Object[]{"valuevalue", "中文"}, 11);
+        // 代理字符对被分在两个参数中
+        assertSame("{}{}", new Object[]{"a\ud83d", "\ude00b"}, 10240);
+        assertSame("{}{}", new Object[]{"a\ud83d", "\ude00b"}, 2);
+    }
+}
@@ -0,0 +1,96 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.zmh.fastlog.config.FastLogConfig;
+import com.zmh.fastlog.model.message.LastConfirmedSeq;
+import com.zmh.fastlog.worker.file.FileWorker;
+import com.zmh.fastlog.worker.mq.MqWorker;
+import lombok.SneakyThrows;
+import org.junit.Test;
+
+import static com.zmh.fastlog.utils.ThreadUtils.sleep;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author zmh
+ */
+public class StripedLogWorkerTest {
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final Logger logger = loggerContext.getLogger("com.zmh.fastlog.worker");
+
+    private ILoggingEvent getLoggingEvent() {
+        return new LoggingEvent(
+            "com.zmh.fastlog.worker",
+            logger,
+            Level.INFO,
+            "hello world",
+            null,
+            null
+        );
+    }
+
+    private FastLogConfig getConfig() {
+        FastLogConfig config = new FastLogConfig();
+        config.setBatchMessageSize(128);
+        config.setMaxMsgSize(1024);
+        config.setLogShardCount(2);
+        return config;
+    }
+
+    @Test
+    @SneakyThrows
+    public void shardSwitchToMqTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        when(mqWorker.enqueue(any())).thenReturn(true);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        try (StripedLogWorker logWorker = new StripedLogWorker(mqWorker, fileWorker, getConfig())) {
+            verify(mqWorker).registerLogWorker(logWorker, 2);
+
+            // 每个分片的初始id就是分片序号, mq确认之后各分片切换到mq
+            assertTrue(logWorker.enqueue(new LastConfirmedSeq(0)));
+            assertTrue(logWorker.enqueue(new LastConfirmedSeq(1)));
+
+            Thread thread = new Thread(() -> logWorker.enqueue(getLoggingEvent()));
+            thread.start();
+            thread.join();
+            logWorker.enqueue(getLoggingEvent());
+
+            verify(mqWorker, timeout(500).times(2)).enqueue(any());
+            sleep(100);
+            verify(fileWorker, never()).enqueue(any());
+        }
+    }
+
+    @Test
+    public void shardStartWithFileTest() {
+        MqWorker mqWorker = mock(MqWorker.class);
+        when(mqWorker.enqueue(any())).thenReturn(true);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        try (StripedLogWorker logWorker = new StripedLogWorker(mqWorker, fileWorker, getConfig())) {
+            // 只确认了当前线程所在的分片, 另一个分片的日志仍然写入文件缓冲区
+            long shard = Thread.currentThread().getId() % 2;
+            logWorker.enqueue(new LastConfirmedSeq(shard));
+
+            logWorker.enqueue(getLoggingEvent());
+            verify(mqWorker, timeout(500)).enqueue(any());
+
+            Thread thread = new Thread(() -> logWorker.enqueue(getLoggingEvent()));
+            while (thread.getId() % 2 == shard) {
+                thread = new Thread(() -> logWorker.enqueue(getLoggingEvent()));
+            }
+            thread.start();
+            verify(fileWorker, timeout(500)).enqueue(any());
+            verify(mqWorker, times(1)).enqueue(any());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class TailSamplerTest {
+    private final List<ILoggingEvent> sent = new ArrayList<>();
+
+    private TailSampler create(String traceKey) {
+        return create(traceKey, 100);
+    }
+
+    private TailSampler create(String traceKey, int maxEvents) {
+        return new TailSampler(Level.INFO, 3, maxEvents, 10, traceKey, new LoggerRules("", "", ""), sent::add);
+    }
+
+    private static LoggingEvent event(Level level, String message, String thread, String traceId, long timeStamp) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerName("com.zmh.fastlog.Test");
+        event.setLevel(level);
+        event.setMessage(message);
+        event.setThreadName(thread);
+        event.setTimeStamp(timeStamp);
+        event.setMDCPropertyMap(null == traceId ? Collections.emptyMap() : Collections.singletonMap("traceId", traceId));
+        return event;
+    }
+
+    @Test
+    public void flushOnErrorTest() {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("")) {
+            assertTrue(sampler.offer(event(Level.DEBUG, "debug 1", "t1", null, now)));
+            assertTrue(sampler.offer(event(Level.TRACE, "trace 2", "t1", null, now)));
+            assertTrue(sampler.offer(event(Level.DEBUG, "other thread", "t2", null, now)));
+            // INFO及以上直接发送
+            assertFalse(sampler.offer(event(Level.INFO, "info", "t1", null, now)));
+            assertTrue(sent.isEmpty());
+
+            // ERROR之前先发送同一线程缓存的日志
+            assertFalse(sampler.offer(event(Level.ERROR, "error", "t1", null, now)));
+            assertEquals(2, sent.size());
+            assertEquals("debug 1", sent.get(0).getMessage());
+            assertEquals("trace 2", sent.get(1).getMessage());
+
+            // 已经发送过的日志不再重复发送
+            assertFalse(sampler.offer(event(Level.ERROR, "error", "t1", null, now)));
+            assertEquals(2, sent.size());
+            assertEquals(1, sampler.contextCount());
+        }
+    }
+
+    @Test
+    public void traceIdTest() {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("traceId")) {
+            // 同一链路跨线程
+            sampler.offer(event(Level.DEBUG, "debug 1", "t1", "trace-a", now));
+            sampler.offer(event(Level.DEBUG, "debug 2", "t2", "trace-a", now));
+            sampler.offer(event(Level.DEBUG, "debug 3", "t1", "trace-b", now));
+            sampler.offer(event(Level.ERROR, "error", "t3", "trace-a", now));
+            assertEquals(2, sent.size());
+            assertEquals("debug 2", sent.get(1).getMessage());
+        }
+    }
+
+    @Test
+    public void boundedAndAgedOutTest() {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("")) {
+            // 超过窗口的日志不发送
+            sampler.offer(event(Level.DEBUG, "expired", "t1", null, now - 20_000));
+            for (int i = 0; i < 4; i++) {
+                sampler.offer(event(Level.DEBUG, "debug " + i, "t1", null, now));
+            }
+            sampler.offer(event(Level.ERROR, "error", "t1", null, now));
+            // 每个上下文只保留最近3条
+            assertEquals(3, sent.size());
+            assertEquals("debug 1", sent.get(0).getMessage());
+
+            // 超过窗口没有新日志的上下文被清理
+            sampler.offer(event(Level.DEBUG, "debug", "t2", null, now));
+            sampler.clean(now + 5_000);
+            assertEquals(1, sampler.contextCount());
+            sampler.clean(now + 20_000);
+            assertEquals(0, sampler.contextCount());
+        }
+    }
+
+    @Test
+    public void globalCapTest() {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("", 4)) {
+            for (int i = 0; i < 3; i++) {
+                sampler.offer(event(Level.DEBUG, "t1 debug " + i, "t1", null, now));
+            }
+            sampler.offer(event(Level.DEBUG, "t2 debug 0", "t2", null, now));
+            assertEquals(4, sampler.retainedCount());
+
+            // 达到全局上限后, 有日志的上下文覆盖自己最早的日志, 没有日志的上下文直接丢弃
+            sampler.offer(event(Level.DEBUG, "t2 debug 1", "t2", null, now));
+            sampler.offer(event(Level.DEBUG, "t3 debug 0", "t3", null, now));
+            assertEquals(4, sampler.retainedCount());
+            assertEquals(1, sampler.droppedCount.getTotalMissingCount());
+
+            sampler.offer(event(Level.ERROR, "error", "t2", null, now));
+            assertEquals(1, sent.size());
+            assertEquals("t2 debug 1", sent.get(0).getMessage());
+            assertEquals(3, sampler.retainedCount());
+        }
+    }
+
+    @Test
+    public void recreateAfterCleanTest() {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("")) {
+            sampler.offer(event(Level.DEBUG, "expired", "t1", null, now - 20_000));
+            sampler.clean(now);
+            assertEquals(0, sampler.contextCount());
+            assertEquals(0, sampler.retainedCount());
+
+            // 被清理的上下文重新创建
+            sampler.offer(event(Level.DEBUG, "debug", "t1", null, now));
+            sampler.offer(event(Level.ERROR, "error", "t1", null, now));
+            assertEquals(1, sent.size());
+            assertEquals("debug", sent.get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void concurrentCleanTest() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        try (TailSampler sampler = create("", 10_000)) {
+            AtomicBoolean running = new AtomicBoolean(true);
+            CountDownLatch done = new CountDownLatch(4);
+            for (int t = 0; t < 4; t++) {
+                String thread = "t" + t;
+                new Thread(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        sampler.offer(event(Level.DEBUG, "debug", thread, null, now));
+                    }
+                    done.countDown();
+                }).start();
+            }
+            Thread cleaner = new Thread(() -> {
+                while (running.get()) {
+                    sampler.clean(now + 20_000);
+                }
+            });
+            cleaner.start();
+            done.await();
+            running.set(false);
+            cleaner.join();
+
+            // 日志不会留在已经移除的上下文中, 计数与剩下的上下文一致
+            for (int t = 0; t < 4; t++) {
+                sampler.offer(event(Level.ERROR, "error", "t" + t, null, now));
+            }
+            assertEquals(0, sampler.retainedCount());
+            assertEquals(0, sampler.contextCount());
+        }
+    }
+}
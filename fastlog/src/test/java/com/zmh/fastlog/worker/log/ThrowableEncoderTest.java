@@ -0,0 +1,65 @@
+package com.zmh.fastlog.worker.log;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import com.zmh.fastlog.utils.JsonByteBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author zmh
+ */
+public class ThrowableEncoderTest {
+
+    private static String encode(ThrowableEncoder encoder, IThrowableProxy tp, long timestamp) {
+        JsonByteBuilder builder = JsonByteBuilder.create().beginObject();
+        encoder.write(builder, tp, timestamp);
+        return builder.endObject().toString();
+    }
+
+    private static IThrowableProxy newThrowable(String message) {
+        Exception cause = new IllegalStateException("cause \"quoted\"\t中文");
+        RuntimeException ex = new RuntimeException(message, cause);
+        ex.addSuppressed(new IllegalArgumentException("suppressed"));
+        return new ThrowableProxy(ex);
+    }
+
+    @Test
+    public void sameAsThrowableProxyUtilTest() {
+        IThrowableProxy tp = newThrowable("hello");
+        String expect = JsonByteBuilder.create()
+            .beginObject()
+            .key("throwable").value(ThrowableProxyUtil.asString(tp))
+            .endObject()
+            .toString();
+
+        assertEquals(expect, encode(new ThrowableEncoder(0), tp, 0));
+    }
+
+    @Test
+    public void dedupTest() {
+        ThrowableEncoder encoder = new ThrowableEncoder(1000);
+        IThrowableProxy[] tps = new IThrowableProxy[3];
+        for (int i = 0; i < tps.length; i++) {
+            // 同一行代码产生的异常堆栈相同, message不同
+            tps[i] = newThrowable("hello " + i);
+        }
+
+        String first = encode(encoder, tps[0], 0);
+        String second = encode(encoder, tps[1], 500);
+        String third = encode(encoder, tps[2], 1000);
+
+        String hash = Long.toHexString(ThrowableEncoder.fingerprint(tps[0]));
+        assertTrue(first.contains("\"throwableHash\":\"" + hash + "\""));
+        assertTrue(second.contains("\"throwableHash\":\"" + hash + "\""));
+
+        // 窗口内重复的异常只输出第一行
+        assertTrue(first.contains("Caused by: "));
+        assertTrue(second.contains("java.lang.RuntimeException: hello 1"));
+        assertFalse(second.contains("Caused by: "));
+        // 超过窗口后重新输出完整堆栈
+        assertTrue(third.contains("Caused by: "));
+    }
+}
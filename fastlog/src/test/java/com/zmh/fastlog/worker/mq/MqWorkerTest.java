@@ -1,21 +1,41 @@
 package com.zmh.fastlog.worker.mq;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.lmax.disruptor.Sequence;
 import com.zmh.fastlog.model.message.ByteData;
-import com.zmh.fastlog.model.message.LastConfirmedSeq;
 import com.zmh.fastlog.utils.ThreadUtils;
+import com.zmh.fastlog.worker.file.FileWorker;
 import com.zmh.fastlog.worker.log.LogWorker;
 import com.zmh.fastlog.worker.mq.producer.KafkaProducer;
+import com.zmh.fastlog.worker.mq.producer.MqProducer;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.System.currentTimeMillis;
 import static org.apache.pulsar.shade.org.apache.commons.lang3.reflect.FieldUtils.readField;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.ArgumentMatchers.argThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @Slf4j
 public class MqWorkerTest {
@@ -35,7 +55,82 @@ public class MqWorkerTest {
             ThreadUtils.sleep(10000);
             assertNotNull(readField(mqWorker, "producer", true));
 
-            verify(logWorker, atLeastOnce()).enqueue(argThat(msg -> ((LastConfirmedSeq) msg).getSeq() == 11));
+            verify(logWorker, atLeastOnce()).onConfirmed(11);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void capacityListenerTest() {
+        AtomicBoolean ready = new AtomicBoolean();
+        MqProducer producer = mock(MqProducer.class);
+        when(producer.isReady()).thenAnswer(invocation -> ready.get());
+
+        try (MqWorker mqWorker = new MqWorker(producer, 10)) {
+            mqWorker.registerLogWorker(mock(LogWorker.class));
+            ArgumentCaptor<Runnable> readyListener = ArgumentCaptor.forClass(Runnable.class);
+            verify(producer).setReadyListener(readyListener.capture());
+
+            CountDownLatch readyLatch = new CountDownLatch(1);
+            mqWorker.addCapacityListener(readyLatch::countDown);
+            assertFalse(mqWorker.enqueue(new ByteData(1, new byte[13], 10)));
+            // mqProducer恢复时立即通知
+            ready.set(true);
+            readyListener.getValue().run();
+            assertTrue(readyLatch.await(1, SECONDS));
+
+            // 消费之后腾出了空间, 再次通知
+            CountDownLatch capacityLatch = new CountDownLatch(1);
+            mqWorker.addCapacityListener(capacityLatch::countDown);
+            assertTrue(mqWorker.enqueue(new ByteData(1, new byte[13], 10)));
+            assertTrue(capacityLatch.await(1, SECONDS));
+        }
+    }
+
+    @Test
+    public void confirmedSeqTest() {
+        MqProducer producer = mock(MqProducer.class);
+        when(producer.isReady()).thenReturn(true);
+        LogWorker logWorker = mock(LogWorker.class);
+
+        try (MqWorker mqWorker = new MqWorker(producer, 10)) {
+            mqWorker.registerLogWorker(logWorker);
+            assertTrue(mqWorker.enqueue(new ByteData(1, new byte[13], 10)));
+            // 通过旁路水位通知, 不再创建LastConfirmedSeq放入日志缓冲区
+            verify(logWorker, timeout(1000)).onConfirmed(1);
+
+            // messageId没有变化时不重复通知
+            assertTrue(mqWorker.enqueue(new ByteData(1, new byte[13], 10)));
+            verify(producer, timeout(1000).times(2)).sendEvent(any());
+            verify(logWorker, after(100).times(1)).onConfirmed(1);
+            verify(logWorker, never()).enqueue(any());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void startupConfirmTest() {
+        MqProducer producer = mock(MqProducer.class);
+        when(producer.isReady()).thenReturn(true);
+        FileWorker fileWorker = mock(FileWorker.class);
+        when(fileWorker.enqueue(any())).thenReturn(true);
+
+        try (MqWorker mqWorker = new MqWorker(producer, 10);
+             LogWorker logWorker = new LogWorker(mqWorker, fileWorker, 10, 1024)) {
+            // 启动时没有待确认的日志, 也要通知LogWorker初始id
+            Sequence confirmedSeq = (Sequence) readField(readField(logWorker, "router", true), "confirmedSeq", true);
+            long deadline = currentTimeMillis() + 3000;
+            while (confirmedSeq.get() < 0 && currentTimeMillis() < deadline) {
+                ThreadUtils.sleep(10);
+            }
+            assertEquals(0, confirmedSeq.get());
+
+            // 第一条日志直接发往mq, 不经过本地文件缓冲区
+            LoggerContext loggerContext = new LoggerContext();
+            logWorker.enqueue(new LoggingEvent("com.zmh.fastlog.worker", loggerContext.getLogger("com.zmh.fastlog.worker"),
+                Level.INFO, "hello world", null, null));
+            verify(producer, timeout(1000)).sendEvent(any());
+            verify(fileWorker, never()).enqueue(any());
         }
     }
-}
\ No newline at end of file
+}